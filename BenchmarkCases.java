@@ -0,0 +1,333 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * The cases measured by the JMH benchmarks in jmh/bench, kept here so they
+ * can use the package-private parts of the simulation.
+ *
+ * Each method builds a seeded flock for one case and returns the operation
+ * to time, as an Op. The operation returns a value taken from what it
+ * changed, for the benchmark to consume; run() puts the case back where it
+ * started, in place, so every measurement starts from the same flock
+ * without the allocation of building a new one. The world grows with the
+ * population so the density, and so the work per circle, is the same at
+ * every size.
+ */
+public class BenchmarkCases {
+
+    /** Area (in square pixels) per circle, so density is the same at every size */
+    private static final int AREA_PER_CIRCLE = 2500;
+
+    /** Cohesion, separation and alignment strengths for each regime */
+    private static final String[] REGIMES = {"default", "highCohesion", "lowCohesion",
+            "highSeparation", "lowSeparation", "highAlignment", "lowAlignment"};
+    private static final double[][] STRENGTHS = {
+            {100, 100, 100}, {100, 20, 20}, {5, 100, 100},
+            {20, 100, 20}, {100, 5, 100}, {20, 20, 100}, {100, 100, 5}};
+
+    /** Modes of the tick case, and of the lod case */
+    private static final List<String> MODES = Arrays.asList("inPlace", "doubleBuffered", "doubleBufferedScalar",
+            "parallel", "verlet", "topological", "offHeap");
+    private static final List<String> LOD_MODES = Arrays.asList("circles", "heatmap", "zoomed");
+
+    /** Skin used by the verlet mode */
+    private static final int VERLET_SKIN = 10;
+    /** Nearest circles followed in the topological mode */
+    private static final int TOPOLOGICAL_K = 7;
+
+    /**
+     * Whole engine tick: grid, step and collisions. Modes are inPlace,
+     * doubleBuffered (best neighbor kernel), doubleBufferedScalar, parallel,
+     * verlet, topological, and offHeap when OffHeapFlock is available.
+     */
+    public static LongSupplier tick(int n, String regime, String mode) {
+        int r = Arrays.asList(REGIMES).indexOf(regime);
+        if (r < 0 || !MODES.contains(mode)) {
+            throw new IllegalArgumentException("unknown regime " + regime + " or mode " + mode);
+        }
+        double[] strengths = STRENGTHS[r];
+        if (mode.equals("offHeap")) {
+            return offHeap(n, strengths);
+        }
+        FlockState state = newFlock(n);
+        FlockEngine engine = new FlockEngine(state);
+        engine.getKernel().setCoStr(strengths[0]);
+        engine.getKernel().setSepStr(strengths[1]);
+        engine.getKernel().setAlignStr(strengths[2]);
+        engine.setDoubleBuffered(!mode.equals("inPlace"));
+        engine.setParallelism(mode.equals("parallel") ? Runtime.getRuntime().availableProcessors() : 1);
+        if (mode.equals("doubleBufferedScalar")) {
+            engine.getKernel().setNeighborKernel(new ScalarNeighborKernel());
+        }
+        if (mode.equals("verlet")) {
+            engine.setVerletSkin(VERLET_SKIN);
+        }
+        if (mode.equals("topological")) {
+            engine.setTopological(TOPOLOGICAL_K);
+        }
+        Runnable restore = restorer(state);
+        return new Op(() -> {
+            engine.tick();
+            return engine.getContactCount();
+        }, () -> {
+            restore.run();
+            engine.setTick(0);
+        }, () -> {
+            if (mode.equals("verlet")) {
+                System.out.printf("verlet rebuild rate %.3f, average list length %.1f%n",
+                        engine.getVerlet().getRebuildRate(), engine.getVerlet().getAverageLength());
+            }
+            engine.shutdown();
+        });
+    }
+
+    /** Tick of a flock held in native memory, made again for every run() */
+    private static LongSupplier offHeap(int n, double[] strengths) {
+        if (!OffHeapFlock.isAvailable()) {
+            throw new IllegalStateException("the off-heap flock is not compiled in");
+        }
+        FlockKernel rules = new FlockKernel();
+        rules.setCoStr(strengths[0]);
+        rules.setSepStr(strengths[1]);
+        rules.setAlignStr(strengths[2]);
+        WorldConfig world = WorldConfig.DEFAULT.withBounds(worldFor(n));
+        OffHeapFlock[] flock = {null};
+        Runnable close = () -> {
+            if (flock[0] != null) {
+                flock[0].close();
+            }
+        };
+        return new Op(() -> {
+            flock[0].tick(rules);
+            return flock[0].getTick();
+        }, () -> {
+            close.run();
+            try {
+                flock[0] = OffHeapFlock.random(n, world, n, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, close);
+    }
+
+    /**
+     * One tick of a flock with 90% of the circles in three dense clumps. The
+     * clumped layout is put back before every tick so it does not spread out
+     * while measuring.
+     */
+    public static LongSupplier clumped(int n, String mode) {
+        if (!mode.equals("doubleBuffered") && !mode.equals("topological")) {
+            throw new IllegalArgumentException("unknown mode " + mode);
+        }
+        FlockState state = newFlock(n);
+        int[] bounds = worldFor(n);
+        int clump = (int) Math.sqrt(n * 30.0);
+        SplittableRandom random = new SplittableRandom(n);
+        for (int i = 0; i < n * 9 / 10; i++) {
+            int center = bounds[2] * (1 + i % 3) / 4;
+            state.x[i] = Math.min(state.xMax, center + random.nextInt(clump));
+            state.y[i] = Math.min(state.yMax, bounds[3] / 2 + random.nextInt(clump));
+        }
+        int[] x = Arrays.copyOf(state.x, n);
+        int[] y = Arrays.copyOf(state.y, n);
+        int[] dx = Arrays.copyOf(state.dx, n);
+        int[] dy = Arrays.copyOf(state.dy, n);
+        FlockEngine engine = new FlockEngine(state);
+        engine.setDoubleBuffered(true);
+        if (mode.equals("topological")) {
+            engine.setTopological(TOPOLOGICAL_K);
+        }
+        return new Op(() -> {
+            System.arraycopy(x, 0, state.x, 0, n);
+            System.arraycopy(y, 0, state.y, 0, n);
+            System.arraycopy(dx, 0, state.dx, 0, n);
+            System.arraycopy(dy, 0, state.dy, 0, n);
+            engine.tick();
+            return engine.getContactCount();
+        }, () -> engine.setTick(0), () -> { });
+    }
+
+    /** Double-buffered tick with k random small obstacles (circles and triangles) to steer around */
+    public static LongSupplier obstacles(int n, int k) {
+        FlockState state = newFlock(n);
+        int[] bounds = worldFor(n);
+        SplittableRandom random = new SplittableRandom(k);
+        List<ObstacleField.Shape> shapes = new ArrayList<>();
+        for (int o = 0; o < k; o++) {
+            double cx = random.nextDouble(bounds[2]);
+            double cy = random.nextDouble(bounds[3]);
+            double size = 3 + random.nextDouble(8);
+            if (o % 2 == 0) {
+                shapes.add(new ObstacleField.Shape(cx, cy, size));
+            } else {
+                shapes.add(new ObstacleField.Shape(new double[] {cx - size, cx + size, cx},
+                        new double[] {cy + size, cy + size, cy - size}));
+            }
+        }
+        FlockEngine engine = new FlockEngine(state);
+        engine.setDoubleBuffered(true);
+        if (k > 0) {
+            engine.getKernel().setObstacles(new ObstacleField(shapes, bounds, ObstacleField.CELL_SIZE));
+        }
+        Runnable restore = restorer(state);
+        return new Op(() -> {
+            engine.tick();
+            return engine.getContactCount();
+        }, () -> {
+            restore.run();
+            engine.setTick(0);
+        }, () -> { });
+    }
+
+    /** A new model (state, engine, metrics, no window) with n random circles */
+    public static LongSupplier startup(int n) {
+        WorldConfig world = WorldConfig.DEFAULT.withBounds(worldFor(n));
+        return new Op(() -> {
+            CircleModel model = new CircleModel(world);
+            model.getFlock().setCount(n);
+            return model.getFlock().count;
+        }, () -> { }, () -> { });
+    }
+
+    /** Collision stage alone, on a flock that has settled for a few ticks */
+    public static LongSupplier collision(int n) {
+        FlockState state = newFlock(n);
+        FlockEngine engine = new FlockEngine(state);
+        for (int t = 0; t < 5; t++) {
+            engine.tick();
+        }
+        CollisionStage collisions = new CollisionStage();
+        Runnable restore = restorer(state);
+        return new Op(() -> {
+            collisions.detect(state);
+            collisions.resolve(state);
+            return state.x[0];
+        }, restore, () -> { });
+    }
+
+    /** Publishing a frame and drawing it on the canvas, off screen */
+    public static LongSupplier render(int n) {
+        FlockState state = newFlock(n);
+        int[] bounds = worldFor(n);
+        SnapshotExchange frames = new SnapshotExchange();
+        FlockCanvas canvas = new FlockCanvas(frames, state.radius, bounds);
+        BufferedImage target = new BufferedImage(bounds[2], bounds[3], BufferedImage.TYPE_INT_ARGB);
+        return new Op(() -> {
+            frames.publish(state, 0);
+            return paint(canvas, target);
+        }, () -> { }, () -> { });
+    }
+
+    /**
+     * Taking a frame and drawing it in the GUI's play area: every circle
+     * (circles), the heatmap at the default threshold (heatmap), and zoomed
+     * in 8x on the middle (zoomed)
+     */
+    public static LongSupplier lod(int n, String mode) {
+        if (!LOD_MODES.contains(mode)) {
+            throw new IllegalArgumentException("unknown mode " + mode);
+        }
+        WorldConfig world = WorldConfig.DEFAULT;
+        FlockState state = new FlockState(n, world);
+        state.setSeed(n);
+        state.setCount(n);
+        int[] bounds = world.bounds();
+        SnapshotExchange frames = new SnapshotExchange();
+        FlockCanvas canvas = new FlockCanvas(frames, state.radius, bounds);
+        BufferedImage target = new BufferedImage(bounds[2], bounds[3], BufferedImage.TYPE_INT_ARGB);
+        RenderView whole = RenderView.whole(bounds);
+        RenderView view = mode.equals("zoomed") ? whole.zoomedAt(bounds[2] / 2, bounds[3] / 2, 8, bounds) : whole;
+        int threshold = mode.equals("circles") ? Integer.MAX_VALUE : CircleModel.DEFAULT_LOD_THRESHOLD;
+        return new Op(() -> {
+            frames.publish(state, 0, view, threshold);
+            return paint(canvas, target);
+        }, () -> { }, () -> { });
+    }
+
+    /** Draws the latest frame onto target and returns one of its pixels */
+    private static long paint(FlockCanvas canvas, BufferedImage target) {
+        Graphics g = target.getGraphics();
+        canvas.paintComponent(g);
+        g.dispose();
+        return target.getRGB(target.getWidth() / 2, target.getHeight() / 2);
+    }
+
+    /** A flock of n circles, seeded with n, in a world sized for it */
+    private static FlockState newFlock(int n) {
+        FlockState state = new FlockState(n, WorldConfig.DEFAULT.withBounds(worldFor(n)));
+        state.setSeed(n);
+        state.setCount(n);
+        return state;
+    }
+
+    /** Puts the circles and random state of s back as they are now, without allocating */
+    private static Runnable restorer(FlockState s) {
+        int n = s.count;
+        int[] x = Arrays.copyOf(s.x, n);
+        int[] y = Arrays.copyOf(s.y, n);
+        int[] dx = Arrays.copyOf(s.dx, n);
+        int[] dy = Arrays.copyOf(s.dy, n);
+        int[] color = Arrays.copyOf(s.color, n);
+        boolean[] visible = Arrays.copyOf(s.visible, n);
+        long seed = s.getSeed();
+        long epoch = s.getEpoch();
+        return () -> {
+            System.arraycopy(x, 0, s.x, 0, n);
+            System.arraycopy(y, 0, s.y, 0, n);
+            System.arraycopy(dx, 0, s.dx, 0, n);
+            System.arraycopy(dy, 0, s.dy, 0, n);
+            System.arraycopy(color, 0, s.color, 0, n);
+            System.arraycopy(visible, 0, s.visible, 0, n);
+            s.count = n;
+            s.changes++;
+            s.setRandomState(seed, epoch);
+        };
+    }
+
+    /** Play area {x, y, w, h} with the same 7:4 shape as the GUI's */
+    private static int[] worldFor(int n) {
+        double area = (double) n * AREA_PER_CIRCLE;
+        int h = Math.max(200, (int) Math.sqrt(area * 4 / 7));
+        int w = Math.max(350, (int) (area / h));
+        return new int[] {0, 0, w, h};
+    }
+
+    /**
+     * The operation of a case, which run() puts back to its start and
+     * close() frees. Only JDK types, so benchmarks outside the default
+     * package can use it.
+     */
+    private static class Op implements LongSupplier, Runnable, AutoCloseable {
+        private final LongSupplier op;
+        private final Runnable reset;
+        private final Runnable close;
+
+        Op(LongSupplier op, Runnable reset, Runnable close) {
+            this.op = op;
+            this.reset = reset;
+            this.close = close;
+        }
+
+        @Override
+        public long getAsLong() {
+            return op.getAsLong();
+        }
+
+        @Override
+        public void run() {
+            reset.run();
+        }
+
+        @Override
+        public void close() {
+            close.run();
+        }
+    }
+}
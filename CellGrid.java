@@ -0,0 +1,28 @@
+/**
+ * Circles sorted by the grid cell they are in, row by row, as FlockKernel
+ * looks up neighbors: the cells of a row are next to each other, so
+ * cellStart(firstCol, row) .. cellEnd(lastCol, row) is one run of positions,
+ * and item(k) is the slot of the circle at position k. SpatialGrid keeps it
+ * on the heap, SegmentFlock in native memory.
+ */
+public interface CellGrid {
+
+    /** Column of the cell holding x, clamped to the grid */
+    int column(int x);
+
+    /** Row of the cell holding y, clamped to the grid */
+    int row(int y);
+
+    int getColumns();
+
+    int getRows();
+
+    /** First position of the cell */
+    int cellStart(int col, int row);
+
+    /** Position after the last of the cell */
+    int cellEnd(int col, int row);
+
+    /** Slot of the circle at position k */
+    int item(int k);
+}
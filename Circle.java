@@ -2,11 +2,11 @@ import java.awt.Color;
 import java.awt.Graphics;
 import javax.swing.JPanel;
 import java.util.Vector;
-import java.util.Random;
 import java.util.List;
 
 /**
- * Circle for drawing in a JFrame
+ * Circle for drawing in a JFrame.
+ * Only a view: the values it draws live in a FlockState.
  *
  * @author Amy Larson
  * @author Sam Winter
@@ -25,188 +25,68 @@ public class Circle extends JPanel {
 
     private int id;
 
-    // Dummy simulationGUI for retrieving playbox bound values
-    private SimulationGUI noSim = new SimulationGUI();
+    /** Flock the circle reads its values from */
+    private final FlockState state;
 
-    /** Fixed size */
-    private int radius = 15;
-
-    /** x and y bounds to keep circles in the playAreas */
-    private final int xMINRANGE = noSim.playBoxBounds[0];
-    private final int xMAXRANGE = noSim.playBoxBounds[2] + noSim.playBoxBounds[0] - radius;
-    private final int yMINRANGE = noSim.playBoxBounds[1];
-    public final int yMAXRANGE = noSim.playBoxBounds[3] + noSim.playBoxBounds[1] - radius;
-
-    /** Color specified in RGB */
-    private Color color = new Color(10, 10, 10);
-
-    /** Location of the JPanel in which the circle is drawn */
-    private Point xy = new Point(0, 0);
-
-    /** Delta of location at each timestep */
-    private Point direction = new Point(+1, +1);
+    /** Slot of this circle in the flock state */
+    private final int index;
 
-    /** Circels have many random components */
-    private Random random = new Random();
-
-    /** Drawn in window when visible */
-    private boolean visible = false;
+    /** Fixed size */
+    private int radius;
 
-    /** Reassigns member variables to the circle. */
-    public void reset() {
-        randomXY();
-        randomDirection();
-        randomColor();
-        setLocation(xy.x, xy.y);
-        showCircle();
-    }
+    /** Color and visibility from the last frame drawn, only touched by the Swing thread */
+    private Color drawnColor = Color.BLACK;
+    private boolean drawnVisible = false;
 
     /** Circle is visible */
     public void showCircle() {
-        visible = true;
+        state.visible[index] = true;
     }
 
     /** Circle is not visible */
     public void hideCircle() {
-        visible = false;
+        state.visible[index] = false;
     }
 
     /** Returns true if circle is visible */
     public boolean visible(){
-        return visible;
+        return state.visible[index];
     }
 
-    /** Default constructor */
-    public Circle() {
+    /** Constructor specifies the flock state and the slot this circle shows */
+    public Circle(FlockState state, int index) {
         id = getId(); // for debugging
 
+        this.state = state;
+        this.index = index;
+        radius = state.radius;
+
         this.setSize(radius, radius);
 
         // Make the box/panel on which the circle is drawn transparent
         this.setBackground(new Color(0.0f, 0.0f, 0.0f, 0.0f));
-
-        // Randomly assign values
-        randomXY();
-        randomDirection();
-        randomColor();
     }
 
-    /** Randomly assign its location based on the fixed ranges. */
-    public void randomXY() {
-        // place at random location
-        xy.x = random.nextInt(xMAXRANGE - xMINRANGE) + xMINRANGE;
-        xy.y = random.nextInt(yMAXRANGE - yMINRANGE) + yMINRANGE;
+    // Returns the radius
+    public int getRadius() {
+        return radius;
     }
 
-    /** Randomly point it in a direction with random "speed" */
-    public void randomDirection() {
-        // set in a random direction
-        direction.x = random.nextInt(6) - 3;
-        direction.y = random.nextInt(6) - 3;
-    }
-
-    /** Randomly assign the RGB components */
-    public void randomColor() {
-        // color randomly
-        color = new Color(random.nextInt(255), random.nextInt(255), random.nextInt(255));
+    // Returns current position
+    public Point getXY() {
+        return new Point(state.x[index], state.y[index]);
     }
 
- 
-    /** Secondary method for advancing circles - This one weights the 3 aspects of flocking behavior*/
-    public void step(List<Circle> circles, double coStr, double sepStr, double alignStr) {
-        Point separation = new Point(0, 0);
-        Point alignment = new Point(0, 0);
-        Point cohesion = new Point(0, 0);
-        
-        // New Stuff
-        coStr /= 100;
-        sepStr /= 100;
-        alignStr /= 100;
-        int forX;
-        int forY;
-        int limit = 5;
-        // End New Stuff
-
-        //new code 3/38
-        //double mag = Math.sqrt((direction.x*direction.x)+ (direction.y+direction.y));
-        //direction.x = (int) (direction.x / mag);
-        //direction.y = (int) (direction.y/mag);
-        int count = 0;
-
-        for (Circle circle : circles) {
-            if (circle == this || !circle.visible()) {
-                continue;
+    /** Moves the panel to where the circle is in the frame, on the Swing thread */
+    public void updateFrom(FrameSnapshot frame) {
+        boolean inFrame = index < frame.count && frame.visible[index];
+        if (inFrame) {
+            setLocation(frame.x[index], frame.y[index]);
+            if (drawnColor.getRGB() != (0xFF000000 | frame.color[index])) {
+                drawnColor = new Color(frame.color[index]);
             }
-
-            int distance = (int) Math.sqrt(Math.pow(xy.x - circle.xy.x, 2) + Math.pow(xy.y - circle.xy.y, 2));
-            if (distance < radius + circle.radius) {
-                separation.x -= (circle.xy.x - xy.x);
-                separation.y -= (circle.xy.y - xy.y);
-                count++;
-            }
-
-            alignment.x += circle.direction.x;
-            alignment.y += circle.direction.y;
-
-            cohesion.x += circle.xy.x;
-            cohesion.y += circle.xy.y;
-            count++;
-        }
-        if (count > 0) {
-            separation.x /= count;
-            separation.y /= count;
-            separation.x *= -1;
-            separation.y *= -1;
-
-            alignment.x /= count;
-            alignment.y /= count;
-
-            cohesion.x /= count;
-            cohesion.y /= count;
-            cohesion.x = (cohesion.x - xy.x) / 100;
-            cohesion.y = (cohesion.y - xy.y) / 100;
         }
-
-        
-        // New Stuff - Limiting speed (Delta values)
-        forX = (int)((separation.x * sepStr) + (alignment.x * alignStr) + (cohesion.x * coStr));
-        forY = (int)((separation.y * sepStr) + (alignment.y * alignStr) + (cohesion.y * coStr));
-        if(forX > limit) {forX = limit;}
-        if(forX < -limit) {forX = -limit;}
-        if(forY > limit) {forY = limit;}
-        if(forY < -limit) {forY = -limit;}
-        // End New Stuff
-
-        direction.x += forX;
-        direction.y += forY;
-
-        xy.x += direction.x;
-        xy.y += direction.y;
-
-        // Boundary checks
-        if (xy.x < xMINRANGE || xy.x > xMAXRANGE) {
-            if(xy.x < xMINRANGE) {xy.x = xMINRANGE;}
-            if(xy.x > xMAXRANGE) {xy.x = xMAXRANGE;}
-            direction.x *= -1;
-        }
-        if (xy.y < yMINRANGE || xy.y > yMAXRANGE) {
-            if(xy.y < yMINRANGE) {xy.y = yMINRANGE;}
-            if(xy.y > yMAXRANGE) {xy.y = yMAXRANGE;}
-            direction.y *= -1;
-        }
-       
-        
-    }
-
-    // Returns true if circle is overlapping with another
-    public boolean overlaps(Circle other) {
-        int distance = (int) Math.sqrt(Math.pow(xy.x - other.xy.x, 2) + Math.pow(xy.y - other.xy.y, 2));
-        return distance < radius + other.radius;
-    }
-
-    // Returns current position
-    public Point getXY() {
-        return xy;
+        drawnVisible = inFrame;
     }
 
 
@@ -215,13 +95,16 @@ public class Circle extends JPanel {
         // This is called every time the circle location is reset in the CircleModel
         // System.out.print(" P"+id);
         super.paintComponent(g);
-        if (visible) {
-            g.setColor(color);
+        if (drawnVisible) {
+            g.setColor(drawnColor);
             g.fillOval(0, 0, radius, radius);
         }
     }
 
-    /** Returns average position of circles from list */
+    /**
+     * Returns average position of circles from list. For the whole flock,
+     * FlockEngine.getOrder() already has it without another pass.
+     */
     public Vector<Double> averagePosition(List<Circle> circles) {
         int count = 0;
         double averageX = 0.0;
@@ -229,33 +112,30 @@ public class Circle extends JPanel {
 
         // Init vector with fixed size
         Vector<Double> sum = new Vector<>(2);
-        // sum.add(1, 0.0);
-        // sum.add(2, 0.0);
         sum.add(0, 0.0);
         sum.add(1, 0.0);
         for (Circle circle : circles) {
             if (circle.visible()) {
-                averageX += circle.getXY().x;
-                averageY = circle.getXY().y;
+                averageX += circle.state.x[circle.index];
+                averageY += circle.state.y[circle.index];
                 count++;
             }
         }
         if (count > 0) {
-            double averageCircleX = averageX / count;
-            double averageCircleY = averageY / count;
-            sum.add(0, averageCircleX);
-            sum.add(1, averageCircleY);
-            // return sum.get(1,2);
+            // Replace the zeros rather than inserting in front of them
+            sum.set(0, averageX / count);
+            sum.set(1, averageY / count);
         }
         return sum;
     }
 
     public Point getDirection() {
-        return direction;
+        return new Point(state.dx[index], state.dy[index]);
     }
     
     public void setDirection(Point newDirection) {
-        direction = newDirection;
+        state.dx[index] = newDirection.x;
+        state.dy[index] = newDirection.y;
     }
 }
 
@@ -2,7 +2,10 @@
  * Circle Model.java
  */
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.lang.Thread;
 
 /**
@@ -12,35 +15,55 @@ import java.lang.Thread;
  */
 public class CircleModel extends Thread {
 
-    private ArrayList<Circle> circles = new ArrayList<>();
-
-    /** Time in ms. "Frame rate" for redrawing the circles. */
-    private int stepSize = 200;
-    /** Current number of circles visible in the window. */
-    private int count = 0;
+    /** Plans when to tick and when to redraw the circles */
+    private final TickScheduler scheduler = new TickScheduler();
     /** Pauses simulation so circles do not move */
-    private boolean paused = true;
-    /** Number of circles created (visible or not). */
-    private final int numCircles = 100;
-
-    // Strength of dynamic effects
-    
-    /** Strength of cohesion behavior */
-    private double cohesionStr = 100;
-    /** Strength of separation behavior */
-    private double separationStr = 100;
-    /** Strength of alignment behavior */
-    private double alignmentStr = 100;
+    private volatile boolean paused = true;
+    /** Room for circles made up front, the flock grows past it as needed */
+    private final int initialCapacity = 100;
+
+    /** Play area, circle size and speed limits */
+    private final WorldConfig world;
+    /** Positions, directions and colors of every circle */
+    private final FlockState state;
+    /** Steps the flock, on one thread or many */
+    private final FlockEngine engine;
+
+    /** Hands finished frames to the Swing thread without locking */
+    private final SnapshotExchange frames = new SnapshotExchange();
+    /** Changes asked for by other threads, applied by the model thread between ticks */
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    /** Times and counts every tick, for JFR and the overlay */
+    private final TickMetrics metrics = new TickMetrics();
+    /** Trades accuracy for speed when ticks run over budget, off until enabled */
+    private final QualityGovernor governor = new QualityGovernor();
+
+    /** Writes every tick to a file while recording, null otherwise */
+    private TrajectoryRecorder recorder;
+    /** Replays a recording instead of simulating, null otherwise */
+    private TrajectoryPlayer player;
+    /** Hands sampled ticks to a background writer while exporting, null otherwise */
+    private volatile TelemetryExporter exporter;
 
     private SimulationGUI simulation;
 
-    /** Default constructor. */
+    /** Part of the play area drawn, set from the Swing thread */
+    private volatile RenderView view;
+    /** Above this many circles in view frames carry a density heatmap instead of circles */
+    public static final int DEFAULT_LOD_THRESHOLD = 100000;
+    private volatile int lodThreshold = Integer.getInteger("flock.lod", DEFAULT_LOD_THRESHOLD);
+
+    /** Default constructor, in the default world. */
     public CircleModel() {
-        // All circels that might appear in the graphics window are created, but are not
-        // visible.
-        for (int i = 0; i < numCircles; i++) {
-            circles.add(new Circle());
-        }
+        this(WorldConfig.DEFAULT);
+    }
+
+    /** Constructor specifies the world. Needs no window, the view is set later. */
+    public CircleModel(WorldConfig world) {
+        this.world = world;
+        state = new FlockState(initialCapacity, world);
+        engine = new FlockEngine(state, world);
+        view = RenderView.whole(world.bounds());
     }
 
     public void setSim(SimulationGUI sim) {
@@ -50,20 +73,82 @@ public class CircleModel extends Thread {
     @Override
     public void run() {
         // Forever run the simulation
+        scheduler.reset(System.nanoTime());
         while (true) {
+            runCommands();
+            long now = System.nanoTime();
+            // Set when the simulation ticked this time around, not paused or replaying
+            boolean ticked = false;
             // Move things only if the simulation is not paused
-            if (!paused) {
-                advanceCircles();
-                simulation.getContentPane().repaint();
+            if (paused) {
+                scheduler.reset(now);
+                metrics.resetRate();
+                governor.resetWindow();
+            } else {
+                int ticks = scheduler.ticksDue(now);
+                for (int t = 0; t < ticks; t++) {
+                    if (player != null) {
+                        replayNext();
+                    } else {
+                        advanceCircles();
+                        ticked = true;
+                    }
+                }
             }
-            try {
-                Thread.sleep(stepSize);
-            } catch (Exception e) {
-
+            // Redraw on its own schedule, paused or not
+            if (scheduler.renderDue(now)) {
+                render(ticked);
+            }
+            if (paused) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                scheduler.waitForNext();
             }
         }
     }
 
+    /**
+     * Publishes the current frame and asks the view to draw it. Taking the
+     * frame counts against the tick budget only if the simulation ticked.
+     */
+    private void render(boolean ticked) {
+        metrics.publish(scheduler.getTickRate(), scheduler.getDroppedTicks(), engine.getOrder(), governor.summary());
+        long start = System.nanoTime();
+        int threshold = governor.lodThreshold(lodThreshold);
+        if (player != null) {
+            frames.publish(player.getState(), player.getTick(), view, threshold);
+        } else {
+            frames.publish(state, engine.getTick(), view, threshold);
+        }
+        // Taking the frame is done on this thread, so it counts against the tick budget
+        if (ticked) {
+            governor.observeRender(System.nanoTime() - start);
+        }
+        simulation.render();
+    }
+
+    /** Applies the changes other threads asked for, in order */
+    private void runCommands() {
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    /** Tick measurements and the overlay text */
+    public TickMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Frames published for drawing */
+    public SnapshotExchange getFrames() {
+        return frames;
+    }
+
     /** Pause the simulation - circles freeze. */
     public void pause() {
         paused = true;
@@ -77,41 +162,70 @@ public class CircleModel extends Thread {
 
     /** Move circles to next location */
     public void advanceCircles() {
-        for (int i = 0; i < count; i++) {
-            // Advance each circle
-            //circles.get(i).step(circles);
-            circles.get(i).step(circles, cohesionStr, separationStr, alignmentStr);
-
-            // Check for collision with other circles
-            for (int j = i + 1; j < count; j++) {
-                if (circles.get(i).overlaps(circles.get(j))) {
-                    handleCollision(circles.get(i), circles.get(j));
-                }
+        governor.configure(engine.getKernel(), view, world);
+        metrics.beforeTick(engine);
+        long start = System.nanoTime();
+        engine.tick();
+        long took = System.nanoTime() - start;
+        metrics.afterTick(engine, scheduler.getTickRate(), governor.getLevel());
+        governor.observeTick(took, scheduler.getTickRate(), engine.getTick());
+        if (recorder != null) {
+            try {
+                recorder.record(state, engine.getTick());
+            } catch (IOException e) {
+                System.out.println("Recording stopped: " + e.getMessage());
+                closeRecorder();
+            }
+        }
+        if (exporter != null) {
+            try {
+                exporter.offer(state, engine.getTick(), engine.getOrder());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Shows the next recorded frame, starting over at the end */
+    private void replayNext() {
+        try {
+            if (!player.next()) {
+                player.rewind();
+                player.next();
             }
-            // Set the location, which prompts the viewer to newly display the circle
-            circles.get(i).setLocation(circles.get(i).getXY().x, circles.get(i).getXY().y);
+        } catch (IOException e) {
+            System.out.println("Replay stopped: " + e.getMessage());
+            closePlayer();
         }
     }
-    /** Handle collision between two circles */
-    private void handleCollision(Circle c1, Circle c2) {
-        // Get current velocity and position for each circle
-        Point v1 = c1.getDirection();
-        Point v2 = c2.getDirection();
-        Point p1 = c1.getXY();
-        Point p2 = c2.getXY();
 
-        // Calculate new velocity for each circle after collision
-        Point newV1 = new Point(v2.x, v2.y);
-        Point newV2 = new Point(v1.x, v1.y);
+    /** Number of touching pairs found on the last tick */
+    public int getContactCount() {
+        return engine.getContactCount();
+    }
+
+    /** The flock state behind the circles */
+    public FlockState getFlock() {
+        return state;
+    }
 
-        // Update velocity for each circle
-        c1.setDirection(newV1);
-        c2.setDirection(newV2);
+    /** Play area, circle size and speed limits the model was made with */
+    public WorldConfig getWorld() {
+        return world;
     }
 
+    /** Part of the play area being drawn */
+    public RenderView getView() {
+        return view;
+    }
+
+    public int getLodThreshold() {
+        return lodThreshold;
+    }
 
-    public ArrayList<Circle> getCircles() {
-        return circles;
+    /** Quality governor, for its level, decisions and accuracy bounds */
+    public QualityGovernor getGovernor() {
+        return governor;
     }
 
     /**
@@ -133,60 +247,253 @@ public class CircleModel extends Thread {
         return difference;
     }
 
-    // ** Calculates average direction of all visible circles */
+    /** Average direction of all visible circles, taken from the last tick's order parameters */
     private Point avgDirection() {
-        int Xsum = 0;
-        int Ysum = 0;
-        int Xavg;
-        int Yavg;
-        Point avgDirection;
-        for (int i = 0; i < count; i++) {
-            Xsum += circles.get(i).getDirection().x;
-            Ysum += circles.get(i).getDirection().y;
-        }
-        Xavg = Xsum / count;
-        Yavg = Ysum / count;
-        avgDirection = new Point(Xavg, Yavg);
-        return avgDirection;
+        FlockOrder order = engine.getOrder();
+        return new Point((int) order.directionX, (int) order.directionY);
+    }
+
+    /** Order parameters (center of mass, polarization, clusters, ...) of the last tick */
+    public FlockOrder getOrder() {
+        return engine.getOrder();
     }
 
-    /** Reset circles */
+    /** Reset circles. Applied by the model thread before its next tick. */
     public void setCount(int circleCount) {
+        commands.add(() -> resetCircles(circleCount));
+    }
+
+    /** Reset circles, on the model thread */
+    private void resetCircles(int circleCount) {
         System.out.println("Making circles!");
-        // Must be in bounds. Only 40 circles in the list.
+        // Need at least 2, no upper limit: the flock grows as needed
         if (circleCount < 2) {
             circleCount = 2;
-        } else if (circleCount > numCircles) {
-            circleCount = numCircles;
         }
-        // Reset "count" circles, making them visible
-        count = circleCount;
-        for (int i = 0; i < count; i++) {
-            circles.get(i).reset();
+        // Reset "count" circles, making them visible, and hide the rest
+        state.setCount(circleCount);
+    }
+
+    /** Adds n random circles without resetting the others, before the next tick */
+    public void spawn(int n) {
+        commands.add(() -> {
+            for (int i = 0; i < n; i++) {
+                state.spawn();
+            }
+        });
+    }
+
+    /** Removes the n most recently added circles (keeping at least 2), before the next tick */
+    public void despawn(int n) {
+        commands.add(() -> {
+            for (int i = 0; i < n && state.count > 2; i++) {
+                state.despawn(state.count - 1);
+            }
+        });
+    }
+
+    /** Seed for the circles made by the next reset or spawn, so runs can be repeated */
+    public void setSeed(long seed) {commands.add(() -> state.setSeed(seed));}
+
+    /** Starts writing every tick to the file, before the next tick */
+    public void startRecording(String path) {
+        commands.add(() -> {
+            closeRecorder();
+            try {
+                recorder = new TrajectoryRecorder(Paths.get(path), state);
+                System.out.println("Recording to " + path + " (seed " + state.getSeed() + ")");
+            } catch (IOException e) {
+                System.out.println("Could not record to " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Saves the whole simulation to a checkpoint file, before the next tick */
+    public void saveCheckpoint(String path) {
+        commands.add(() -> {
+            try {
+                FlockCheckpoint.save(Paths.get(path), engine);
+                System.out.println("Saved " + state.count + " circles at tick " + engine.getTick() + " to " + path);
+            } catch (IOException e) {
+                System.out.println("Could not save " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Replaces the simulation with the one saved in a checkpoint file, before the next tick */
+    public void loadCheckpoint(String path) {
+        commands.add(() -> {
+            try {
+                FlockCheckpoint.load(Paths.get(path), engine);
+                System.out.println("Loaded " + state.count + " circles at tick " + engine.getTick() + " from " + path);
+            } catch (IOException e) {
+                System.out.println("Could not load " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Loads static obstacles from a file (see ObstacleField) for the circles
+     * to steer around, replacing any loaded before, and shows them
+     */
+    public void loadObstacles(String path) {
+        commands.add(() -> {
+            try {
+                long start = System.nanoTime();
+                int[] bounds = {state.xMin, state.yMin,
+                        state.xMax - state.xMin + state.radius, state.yMax - state.yMin + state.radius};
+                ObstacleField field = ObstacleField.load(Paths.get(path), bounds, ObstacleField.CELL_SIZE);
+                engine.getKernel().setObstacles(field);
+                simulation.setObstacles(field);
+                System.out.printf("Loaded %d obstacles from %s in %.1f ms%n",
+                        field.getObstacleCount(), path, (System.nanoTime() - start) / 1e6);
+            } catch (IOException e) {
+                System.out.println("Could not load " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Removes the obstacles */
+    public void clearObstacles() {
+        commands.add(() -> {
+            engine.getKernel().setObstacles(null);
+            simulation.setObstacles(null);
+        });
+    }
+
+    /**
+     * Starts exporting every n-th tick to base.csv and base.cols, on a
+     * background thread. Ticks are dropped (and counted) rather than waited
+     * for when the writer falls behind.
+     */
+    public void startExport(String base, int every) {
+        commands.add(() -> {
+            closeExporter();
+            try {
+                exporter = new TelemetryExporter(Arrays.asList(
+                        new CsvTelemetrySink(Paths.get(base + ".csv")),
+                        new ColumnarTelemetrySink(Paths.get(base + ".cols"))),
+                        every, TelemetryExporter.Policy.DROP);
+            } catch (IOException e) {
+                System.out.println("Could not export to " + base + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Stops exporting once what is queued has been written */
+    public void stopExport() {
+        commands.add(this::closeExporter);
+    }
+
+    /** The running export, null when not exporting */
+    public TelemetryExporter getExporter() {
+        return exporter;
+    }
+
+    private void closeExporter() {
+        if (exporter != null) {
+            TelemetryExporter done = exporter;
+            exporter = null;
+            try {
+                done.close();
+                System.out.println(done.summary());
+            } catch (IOException e) {
+                System.out.println("Export failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Stops recording and closes the file */
+    public void stopRecording() {
+        commands.add(this::closeRecorder);
+    }
+
+    /** Replays the file instead of simulating, at the current speed, until stopped */
+    public void startPlayback(String path) {
+        commands.add(() -> {
+            closePlayer();
+            try {
+                player = new TrajectoryPlayer(Paths.get(path));
+                governor.resetWindow();
+                // Show the first frame right away, even while paused
+                player.next();
+            } catch (IOException e) {
+                System.out.println("Could not replay " + path + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Goes back to the live simulation */
+    public void stopPlayback() {
+        commands.add(this::closePlayer);
+    }
+
+    private void closeRecorder() {
+        if (recorder != null) {
+            try {
+                recorder.close();
+                System.out.println("Recorded " + recorder.getFrames() + " ticks");
+            } catch (IOException e) {
+                System.out.println("Could not close recording: " + e.getMessage());
+            }
+            recorder = null;
         }
-        // Hide the rest
-        for (int i = count; i < numCircles; i++) {
-            circles.get(i).hideCircle();
+    }
+
+    private void closePlayer() {
+        if (player != null) {
+            try {
+                player.close();
+            } catch (IOException e) {
+                System.out.println("Could not close replay: " + e.getMessage());
+            }
+            player = null;
+            governor.resetWindow();
         }
     }
 
-    /** Set speed of simulation from 1 (slow) to 5 (fast) */
+    /** Set speed of simulation from 1 (slow) to 5 (fast), 0 runs as fast as possible */
     public void setSpeed(int newSpeed) {
         // speed is between 1 (slow) and 5 (fastest)
-        // low speed = high step size
-        if (newSpeed < 1) {
-            newSpeed = 1;
+        // low speed = long time between ticks
+        if (newSpeed <= 0) {
+            scheduler.setTickRate(0);
+            return;
         } else if (newSpeed > 5) {
             newSpeed = 5;
         }
-        stepSize = (6 - newSpeed) * 80; // 80 to 400ms
+        scheduler.setTickRate(1000.0 / ((6 - newSpeed) * 80)); // every 80 to 400ms
     }
 
+    /** Set redraws per second, independent of the tick rate */
+    public void setRenderRate(double rate) {scheduler.setRenderRate(rate);}
+    /** Set the most ticks run back to back when the simulation falls behind */
+    public void setMaxCatchUp(int ticks) {scheduler.setMaxCatchUp(ticks);}
+
+    // Settings below are applied by the model thread before its next tick
+
+    /** Double-buffered ticks: results no longer depend on the order of the circles */
+    public void setDoubleBuffered(boolean on) {commands.add(() -> engine.setDoubleBuffered(on));}
+    /** Keep neighbor lists across ticks with this much extra distance, 0 = off */
+    public void setVerletSkin(int skin) {commands.add(() -> engine.setVerletSkin(skin));}
+    /** Each circle follows its k nearest circles (found with a KD-tree), 0 = every circle within perception */
+    public void setTopological(int k) {commands.add(() -> engine.setTopological(k));}
+    /** Number of threads used for each tick (1 = no pool) */
+    public void setParallelism(int threads) {engine.setParallelism(threads);}
+    /** Part of the play area drawn from the next frame on */
+    public void setView(RenderView v) {view = v;}
+    /** Most circles in view drawn one by one, more are drawn as a density heatmap */
+    public void setLodThreshold(int circles) {lodThreshold = Math.max(0, circles);}
+    /** Lets the governor lower quality to hold the target tick rate, or goes back to full quality */
+    public void setGovernorEnabled(boolean on) {governor.setEnabled(on);}
+
     /** Set strength of dynamic cohesion */
-    public void setCoStr(double v) {cohesionStr = v;}
+    public void setCoStr(double v) {commands.add(() -> engine.getKernel().setCoStr(v));}
     /** Set strength of dynamic separation */
-    public void setSepStr(double v) {separationStr = v;}
+    public void setSepStr(double v) {commands.add(() -> engine.getKernel().setSepStr(v));}
     /** Set strength of dynamic alignment */
-    public void setAlignStr(double v) {alignmentStr = v;}
+    public void setAlignStr(double v) {commands.add(() -> engine.getKernel().setAlignStr(v));}
+    /** Set how far circles can see each other (at least 1 pixel) */
+    public void setPerception(int v) {commands.add(() -> engine.getKernel().setPerception(v));}
 
 }
@@ -0,0 +1,216 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds and resolves overlapping circles once per tick.
+ *
+ * Broad phase: circles are sorted into a grid with cells one diameter wide,
+ * so only circles in the same or a neighboring cell can touch. Each cell is
+ * paired with itself and 4 of its neighbors (right, and the 3 below) so every
+ * pair is looked at once.
+ * Narrow phase: squared distance against the squared diameter.
+ * Contacts are kept in reusable arrays of index pairs.
+ * Detection can be split into bands of grid rows on a ForkJoinPool; the
+ * contacts are then resolved on one thread.
+ */
+public class CollisionStage {
+
+    /** Grid with cells as wide as a circle */
+    private final SpatialGrid grid = new SpatialGrid(1);
+
+    /**
+     * Contacts found by each band of grid rows. One band when running on one
+     * thread; in parallel each task fills its own band so nothing is shared.
+     */
+    private Contacts[] bands = {new Contacts()};
+    /** Number of bands used on the last tick */
+    private int bandCount = 1;
+    /** Number of contacts found on the last tick */
+    private int contactCount = 0;
+
+    /** Finds every touching pair among the circles in the state */
+    public void detect(FlockState s) {
+        detect(s, null, 1);
+    }
+
+    /**
+     * Finds every touching pair, splitting the grid rows into up to chunks
+     * bands run on the pool. A null pool runs on the calling thread.
+     */
+    public void detect(FlockState s, ForkJoinPool pool, int chunks) {
+        long touching = 2L * s.radius;
+        long touchingSq = touching * touching;
+        grid.setCellSize(2 * s.radius);
+        grid.rebuild(s.x, s.y, s.visible, s.count);
+
+        int rows = grid.getRows();
+        bandCount = (pool == null) ? 1 : Math.max(1, Math.min(chunks, rows));
+        if (bands.length < bandCount) {
+            Contacts[] more = new Contacts[bandCount];
+            System.arraycopy(bands, 0, more, 0, bands.length);
+            for (int b = bands.length; b < bandCount; b++) {
+                more[b] = new Contacts();
+            }
+            bands = more;
+        }
+
+        if (bandCount == 1) {
+            detectRows(s, 0, rows, touchingSq, bands[0]);
+        } else {
+            pool.invoke(new BandTask(s, 0, bandCount, rows, touchingSq));
+        }
+
+        contactCount = 0;
+        for (int b = 0; b < bandCount; b++) {
+            contactCount += bands[b].count;
+        }
+    }
+
+    /** Swaps the direction of each touching pair, one band after another */
+    public void resolve(FlockState s) {
+        int[] dx = s.dx;
+        int[] dy = s.dy;
+        for (int b = 0; b < bandCount; b++) {
+            int[] pairs = bands[b].pairs;
+            int n = bands[b].count;
+            for (int k = 0; k < n; k++) {
+                int i = pairs[2 * k];
+                int j = pairs[2 * k + 1];
+                int tx = dx[i];
+                int ty = dy[i];
+                dx[i] = dx[j];
+                dy[i] = dy[j];
+                dx[j] = tx;
+                dy[j] = ty;
+            }
+        }
+    }
+
+    /**
+     * Swaps only the touching pairs with one circle below split and the
+     * other at or above it, for pairs that straddle two groups
+     */
+    public void resolveAcross(FlockState s, int split) {
+        int[] dx = s.dx;
+        int[] dy = s.dy;
+        for (int b = 0; b < bandCount; b++) {
+            int[] pairs = bands[b].pairs;
+            int n = bands[b].count;
+            for (int k = 0; k < n; k++) {
+                int i = pairs[2 * k];
+                int j = pairs[2 * k + 1];
+                if ((i < split) == (j < split)) {
+                    continue;
+                }
+                int tx = dx[i];
+                int ty = dy[i];
+                dx[i] = dx[j];
+                dy[i] = dy[j];
+                dx[j] = tx;
+                dy[j] = ty;
+            }
+        }
+    }
+
+    /** Number of touching pairs found on the last tick */
+    public int getContactCount() {
+        return contactCount;
+    }
+
+    /** Finds the touching pairs whose first circle is in rows firstRow .. lastRow (exclusive) */
+    private void detectRows(FlockState s, int firstRow, int lastRow, long touchingSq, Contacts out) {
+        out.count = 0;
+        int cols = grid.getColumns();
+        int rows = grid.getRows();
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int col = 0; col < cols; col++) {
+                int start = grid.cellStart(col, row);
+                int end = grid.cellEnd(col, row);
+                for (int a = start; a < end; a++) {
+                    int i = grid.item(a);
+                    // Rest of the same cell
+                    for (int b = a + 1; b < end; b++) {
+                        test(s, i, grid.item(b), touchingSq, out);
+                    }
+                    // Right neighbor, then the 3 cells below
+                    if (col + 1 < cols) {
+                        testCell(s, i, col + 1, row, touchingSq, out);
+                    }
+                    if (row + 1 < rows) {
+                        if (col > 0) {
+                            testCell(s, i, col - 1, row + 1, touchingSq, out);
+                        }
+                        testCell(s, i, col, row + 1, touchingSq, out);
+                        if (col + 1 < cols) {
+                            testCell(s, i, col + 1, row + 1, touchingSq, out);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void testCell(FlockState s, int i, int col, int row, long touchingSq, Contacts out) {
+        int end = grid.cellEnd(col, row);
+        for (int b = grid.cellStart(col, row); b < end; b++) {
+            test(s, i, grid.item(b), touchingSq, out);
+        }
+    }
+
+    private void test(FlockState s, int i, int j, long touchingSq, Contacts out) {
+        long ox = s.x[i] - s.x[j];
+        long oy = s.y[i] - s.y[j];
+        if (ox * ox + oy * oy < touchingSq) {
+            out.add(Math.min(i, j), Math.max(i, j));
+        }
+    }
+
+    /** Reusable list of contact pairs, pairs[2k] and pairs[2k+1] touch */
+    private static class Contacts {
+        int[] pairs = new int[64];
+        int count = 0;
+
+        void add(int i, int j) {
+            if (2 * count + 2 > pairs.length) {
+                int[] bigger = new int[pairs.length * 2];
+                System.arraycopy(pairs, 0, bigger, 0, pairs.length);
+                pairs = bigger;
+            }
+            pairs[2 * count] = i;
+            pairs[2 * count + 1] = j;
+            count++;
+        }
+    }
+
+    /** Runs the bands firstBand .. lastBand (exclusive), splitting in half */
+    private class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FlockState s;
+        private final int firstBand;
+        private final int lastBand;
+        private final int rows;
+        private final long touchingSq;
+
+        BandTask(FlockState s, int firstBand, int lastBand, int rows, long touchingSq) {
+            this.s = s;
+            this.firstBand = firstBand;
+            this.lastBand = lastBand;
+            this.rows = rows;
+            this.touchingSq = touchingSq;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastBand - firstBand == 1) {
+                int firstRow = (int) ((long) rows * firstBand / bandCount);
+                int lastRow = (int) ((long) rows * (firstBand + 1) / bandCount);
+                detectRows(s, firstRow, lastRow, touchingSq, bands[firstBand]);
+            } else {
+                int mid = (firstBand + lastBand) >>> 1;
+                invokeAll(new BandTask(s, firstBand, mid, rows, touchingSq),
+                        new BandTask(s, mid, lastBand, rows, touchingSq));
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes frames in a column layout, little endian: a header (magic "FLKT",
+ * version), then for each frame its tick and count, its order parameters
+ * (center x, y, polarization, angular momentum, nearest distance as
+ * doubles, clusters as an int), followed by the whole x column, then y,
+ * dx, dy as ints and visible as bytes. Reading one column of a frame is a
+ * single contiguous read.
+ */
+public class ColumnarTelemetrySink implements TelemetrySink {
+
+    public static final int MAGIC = 0x544B4C46; // "FLKT"
+    public static final int VERSION = 2;
+
+    /** Bytes moved per channel call */
+    private static final int CHUNK = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+    private long bytes = 0;
+
+    public ColumnarTelemetrySink(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    @Override
+    public void write(TelemetryFrame f) throws IOException {
+        if (buffer.remaining() < 8 + 4 + 5 * 8 + 4) {
+            flush();
+        }
+        buffer.putLong(f.tick);
+        buffer.putInt(f.count);
+        buffer.putDouble(f.order.centerX);
+        buffer.putDouble(f.order.centerY);
+        buffer.putDouble(f.order.polarization);
+        buffer.putDouble(f.order.angularMomentum);
+        buffer.putDouble(f.order.nearestDistance);
+        buffer.putInt(f.order.clusters);
+        putInts(f.x, f.count);
+        putInts(f.y, f.count);
+        putInts(f.dx, f.count);
+        putInts(f.dy, f.count);
+        for (int i = 0; i < f.count; i++) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) (f.visible[i] ? 1 : 0));
+        }
+    }
+
+    /** Copies the first n values into the buffer in bulk, flushing when it fills */
+    private void putInts(int[] values, int n) throws IOException {
+        int done = 0;
+        while (done < n) {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            int len = Math.min(n - done, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, done, len);
+            buffer.position(buffer.position() + len * 4);
+            done += len;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes;
+    }
+}
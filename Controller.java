@@ -13,13 +13,19 @@ public class Controller implements ActionListener {
     
 
     /** The model of the circles. */
-    private final CircleModel model = new CircleModel();
+    private final CircleModel model;
     /** The gui for the simulation. */
     private final SimulationGUI view;
     
     /** Default constructor to set up the viewer
      */
     public Controller() {
+        this(WorldConfig.DEFAULT);
+    }
+
+    /** Sets up the model and the viewer for the given world */
+    public Controller(WorldConfig world) {
+        model = new CircleModel(world);
         view = new SimulationGUI(this,model);
         model.setSim(view);
         view.setVisible(true);
@@ -38,6 +44,12 @@ public class Controller implements ActionListener {
             // Set the model on pause
             model.pause();
 
+            // Seed the new circles, so the same seed gives the same run
+            String seed = this.view.seed.getText().trim();
+            if (!seed.isEmpty()) {
+                model.setSeed(Long.parseLong(seed));
+            }
+
             // Create the circles based on count
             Integer count = Integer.valueOf(this.view.count.getText());
             model.setCount(count);
@@ -57,6 +69,26 @@ public class Controller implements ActionListener {
             // Set alignment slider
             Integer alignment = Integer.valueOf(this.view.alignment.getValue());
             model.setAlignStr(alignment);
+
+            // Set the number of threads stepping the flock
+            Integer threads = Integer.valueOf(this.view.threads.getText());
+            model.setParallelism(threads);
+
+            // Set how many nearest circles each one follows (0 = all within perception)
+            Integer nearest = Integer.valueOf(this.view.nearest.getText());
+            model.setTopological(nearest);
+
+            // Set the Verlet list skin (0 = look neighbors up on the grid every tick)
+            Integer skin = Integer.valueOf(this.view.verlet.getText());
+            model.setVerletSkin(skin);
+
+            // Set how many circles in view are drawn before switching to the heatmap
+            Integer lod = Integer.valueOf(this.view.lod.getText());
+            model.setLodThreshold(lod);
+
+            // Set perception slider
+            Integer perception = Integer.valueOf(this.view.perception.getValue());
+            model.setPerception(perception);
             
         }
         else if( ae.getActionCommand().equals( "Stop")) {
@@ -66,5 +98,71 @@ public class Controller implements ActionListener {
         else if( ae.getActionCommand().equals( "Play")) {
             model.play();
         }
+
+        else if( ae.getActionCommand().equals( "Spawn")) {
+            model.spawn(1);
+        }
+
+        else if( ae.getActionCommand().equals( "Despawn")) {
+            model.despawn(1);
+        }
+
+        else if( ae.getActionCommand().equals( "One canvas")) {
+            view.setCanvasMode(view.oneCanvas.isSelected());
+        }
+
+        else if( ae.getActionCommand().equals( "Record")) {
+            if (view.record.isSelected()) {
+                model.startRecording(view.file.getText().trim());
+            } else {
+                model.stopRecording();
+            }
+        }
+
+        else if( ae.getActionCommand().equals( "Replay")) {
+            if (view.replay.isSelected()) {
+                model.startPlayback(view.file.getText().trim());
+            } else {
+                model.stopPlayback();
+            }
+        }
+
+        else if( ae.getActionCommand().equals( "Save")) {
+            model.saveCheckpoint(view.checkpoint.getText().trim());
+        }
+
+        else if( ae.getActionCommand().equals( "Load")) {
+            model.loadCheckpoint(view.checkpoint.getText().trim());
+        }
+
+        else if( ae.getActionCommand().equals( "Obstacles")) {
+            if (view.obstacles.isSelected()) {
+                model.loadObstacles(view.obstacleFile.getText().trim());
+            } else {
+                model.clearObstacles();
+            }
+        }
+
+        else if( ae.getActionCommand().equals( "Double-buffered")) {
+            model.setDoubleBuffered(view.doubleBuffered.isSelected());
+        }
+
+        else if( ae.getActionCommand().equals( "Governor")) {
+            model.setGovernorEnabled(view.governor.isSelected());
+        }
+
+        else if( ae.getActionCommand().equals( "Export")) {
+            if (view.export.isSelected()) {
+                // flock.rec exports to flock.csv and flock.cols
+                String base = view.file.getText().trim().replaceFirst("\\.[^.\\\\/]*$", "");
+                model.startExport(base, SimulationGUI.EXPORT_EVERY);
+            } else {
+                model.stopExport();
+            }
+        }
+
+        else if( ae.getActionCommand().equals( "Metrics")) {
+            view.setMetricsShown(view.showMetrics.isSelected());
+        }
     }
 }
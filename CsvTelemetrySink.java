@@ -0,0 +1,51 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Writes frames as CSV, one row per circle: tick,id,x,y,dx,dy,visible */
+public class CsvTelemetrySink implements TelemetrySink {
+
+    private final BufferedWriter out;
+    /** One row at a time, reused */
+    private final StringBuilder row = new StringBuilder(64);
+    private long bytes = 0;
+
+    public CsvTelemetrySink(Path file) throws IOException {
+        out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII);
+        writeRow("tick,id,x,y,dx,dy,visible\n");
+    }
+
+    @Override
+    public void write(TelemetryFrame f) throws IOException {
+        for (int i = 0; i < f.count; i++) {
+            row.setLength(0);
+            row.append(f.tick).append(',').append(i).append(',')
+                    .append(f.x[i]).append(',').append(f.y[i]).append(',')
+                    .append(f.dx[i]).append(',').append(f.dy[i]).append(',')
+                    .append(f.visible[i] ? 1 : 0).append('\n');
+            writeRow(row);
+        }
+    }
+
+    private void writeRow(CharSequence text) throws IOException {
+        out.append(text);
+        bytes += text.length();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Circles counted into square bins of the canvas, with their summed
+ * direction, for drawing a big flock as a density and heading heatmap
+ * instead of circle by circle.
+ *
+ * Bins are BIN screen pixels wide (one world pixel when zoomed in
+ * further), over whatever part of the play area a RenderView shows, so
+ * drawing the map costs the same however many circles there are. Building
+ * it is one pass over the FlockState, split over the common ForkJoinPool:
+ * each chunk of circles counts into its own bins, then the chunks are
+ * added up.
+ */
+public class DensityMap {
+
+    /** Width and height of a bin in screen pixels */
+    public static final int BIN = 4;
+    /** Fewest circles per chunk worth a task of its own */
+    private static final int GRAIN = 1 << 16;
+
+    /** Bin size used for the last build, in screen pixels */
+    private int binSize = BIN;
+    /** Bins across and down */
+    private int cols = 0;
+    private int rows = 0;
+    /**
+     * Circles, and the sum of their dx and dy, per bin (row by row), side
+     * by side so binning a circle touches one cache line
+     */
+    private int[] sums = new int[0];
+    /** Circles in the view, and the most in one bin */
+    private int total = 0;
+    private int peak = 0;
+
+    /** Per chunk sums, reused across frames */
+    private int[][] parts = new int[0][];
+
+    /** Counts the visible circles of s that fall inside the view, on a canvas width x height pixels */
+    public void build(FlockState s, RenderView view, int width, int height) {
+        // Circles sit on whole world pixels, so smaller bins would mostly stay empty
+        binSize = Math.max(BIN, view.zoom);
+        cols = (width + binSize - 1) / binSize;
+        rows = (height + binSize - 1) / binSize;
+        int size = 3 * cols * rows;
+        if (sums.length < size) {
+            sums = new int[size];
+        }
+        int n = s.count;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), n / GRAIN));
+        if (chunks == 1) {
+            Arrays.fill(sums, 0, size, 0);
+            binRange(s, view, 0, n, sums);
+        } else {
+            if (parts.length < chunks || parts[0].length < size) {
+                parts = new int[chunks][size];
+            }
+            ForkJoinPool.commonPool().invoke(new BinTask(s, view, n, chunks, 0, chunks));
+            System.arraycopy(parts[0], 0, sums, 0, size);
+            for (int k = 1; k < chunks; k++) {
+                int[] part = parts[k];
+                for (int b = 0; b < size; b++) {
+                    sums[b] += part[b];
+                }
+            }
+        }
+        total = 0;
+        peak = 0;
+        for (int b = 0; b < size; b += 3) {
+            total += sums[b];
+            peak = Math.max(peak, sums[b]);
+        }
+    }
+
+    /** Bins circles from .. to (exclusive) into sums, which the caller clears first */
+    private void binRange(FlockState s, RenderView view, int from, int to, int[] into) {
+        int[] x = s.x;
+        int[] y = s.y;
+        int[] dx = s.dx;
+        int[] dy = s.dy;
+        boolean[] visible = s.visible;
+        // Circles are binned by their center
+        int half = s.radius / 2;
+        int zoom = view.zoom;
+        int bin = binSize;
+        int width = cols * bin;
+        int height = rows * bin;
+        for (int i = from; i < to; i++) {
+            if (!visible[i]) {
+                continue;
+            }
+            int sx = (x[i] + half - view.left) * zoom;
+            int sy = (y[i] + half - view.top) * zoom;
+            if (sx < 0 || sy < 0 || sx >= width || sy >= height) {
+                continue;
+            }
+            int b = 3 * ((sy / bin) * cols + sx / bin);
+            into[b]++;
+            into[b + 1] += dx[i];
+            into[b + 2] += dy[i];
+        }
+    }
+
+    /** Width and height of a bin on the last build, in screen pixels */
+    public int getBinSize() {
+        return binSize;
+    }
+
+    public int getColumns() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /** Circles in bin b (row * columns + column) */
+    public int count(int b) {
+        return sums[3 * b];
+    }
+
+    /** Summed direction of the circles in bin b */
+    public int sumDx(int b) {
+        return sums[3 * b + 1];
+    }
+
+    public int sumDy(int b) {
+        return sums[3 * b + 2];
+    }
+
+    /** Circles in the view on the last build */
+    public int getTotal() {
+        return total;
+    }
+
+    /** Most circles in one bin on the last build */
+    public int getPeak() {
+        return peak;
+    }
+
+    /** Bins the chunks first .. last (exclusive), each into its own arrays, splitting in half */
+    private class BinTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FlockState s;
+        private final RenderView view;
+        private final int n;
+        private final int chunks;
+        private final int first;
+        private final int last;
+
+        BinTask(FlockState s, RenderView view, int n, int chunks, int first, int last) {
+            this.s = s;
+            this.view = view;
+            this.n = n;
+            this.chunks = chunks;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                Arrays.fill(parts[first], 0, 3 * cols * rows, 0);
+                int from = (int) ((long) n * first / chunks);
+                int to = (int) ((long) n * (first + 1) / chunks);
+                binRange(s, view, from, to, parts[first]);
+            } else {
+                int mid = (first + last) >>> 1;
+                invokeAll(new BinTask(s, view, n, chunks, first, mid), new BinTask(s, view, n, chunks, mid, last));
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import javax.swing.JPanel;
+import jdk.jfr.EventType;
+
+/**
+ * Draws the whole flock on one panel in a single pass, instead of one JPanel
+ * per circle.
+ *
+ * Circles come from the latest FrameSnapshot, so drawing never waits on the
+ * model thread. They are stamped straight into the pixels of a BufferedImage, one
+ * precomputed run of pixels per row of the circle, and the image is drawn
+ * in one call. The panel covers the play area, so circle (x, y) is drawn at
+ * ((x - view.left) * zoom, (y - view.top) * zoom) for the view the frame
+ * was taken for; the mouse wheel zooms in and out around the pointer.
+ *
+ * Aggregated frames are drawn as a heatmap instead, one block of pixels
+ * per DensityMap bin: the hue shows which way the circles in the bin are
+ * heading, the brightness how many there are (log scale).
+ */
+public class FlockCanvas extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Frames to draw, published by the model thread */
+    private final SnapshotExchange frames;
+
+    /** Top left corner of the play area in the window */
+    private final int left;
+    private final int top;
+    /** Play area {x, y, w, h}, the view never leaves it */
+    private final int[] bounds;
+    /** Circle size in world pixels */
+    private final int radius;
+
+    /** Image the circles are stamped into, and its pixels */
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+
+    /** For each row of a circle, the first column and number of pixels covered, at spanZoom */
+    private int[] spanStart;
+    private int[] spanLength;
+    private int spanZoom = 0;
+
+    /** Obstacles drawn under the circles, null for none */
+    private ObstacleField obstacles = null;
+    /** The obstacles as seen in backgroundView, copied in instead of clearing; null for none */
+    private int[] background = null;
+    private RenderView backgroundView = null;
+    /** Color of the obstacles */
+    private static final int OBSTACLE_COLOR = 0xFF505050;
+
+    /** Heatmap colors, by heading (HUES around the circle) and density (LEVELS) */
+    private static final int HUES = 64;
+    private static final int LEVELS = 32;
+    private static final int[] PALETTE = new int[HUES * LEVELS];
+    /** Color of bins whose circles cancel out to no heading, by density */
+    private static final int[] STILL = new int[LEVELS];
+    static {
+        for (int level = 0; level < LEVELS; level++) {
+            float brightness = 0.3f + 0.7f * level / (LEVELS - 1);
+            for (int hue = 0; hue < HUES; hue++) {
+                PALETTE[hue * LEVELS + level] = Color.HSBtoRGB((float) hue / HUES, 0.85f, brightness);
+            }
+            STILL[level] = Color.HSBtoRGB(0, 0, brightness);
+        }
+    }
+
+    /** Brightness level for each bin count, up to the last frame's peak */
+    private int[] levelOf = new int[0];
+
+    /** View shown by the last wheel turn, sent on to viewListener */
+    private RenderView view;
+    /** Told about every new view, e.g. the model that takes the frames; null for none */
+    private Consumer<RenderView> viewListener = null;
+
+    /** Render events, only made while a recording wants them */
+    private static final EventType RENDER_EVENTS = EventType.getEventType(RenderEvent.class);
+
+    /** Draw times (microseconds) of recent frames, only touched on the Swing thread */
+    private final RollingHistogram drawMicros = new RollingHistogram(120);
+    /** Whether the last frame drawn was a heatmap, and its zoom */
+    private boolean lastAggregated = false;
+    private int lastZoom = 1;
+
+    /**
+     * Constructor specifies where frames come from, the circle radius and
+     * the play area {x, y, w, h}
+     */
+    public FlockCanvas(SnapshotExchange frames, int radius, int[] bounds) {
+        this.frames = frames;
+        left = bounds[0];
+        top = bounds[1];
+        width = bounds[2];
+        height = bounds[3];
+        this.bounds = bounds.clone();
+        this.radius = radius;
+        setBounds(left, top, width, height);
+        // Let the bounding box show through
+        setOpaque(false);
+
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        setSpans(1);
+
+        view = RenderView.whole(bounds);
+        addMouseWheelListener(e -> {
+            double factor = e.getWheelRotation() < 0 ? 2 : 0.5;
+            showView(view.zoomedAt(e.getX(), e.getY(), factor, this.bounds));
+        });
+    }
+
+    /** Tells listener about every view the mouse wheel picks, call on the Swing thread */
+    public void setViewListener(Consumer<RenderView> listener) {
+        viewListener = listener;
+    }
+
+    /** Goes back to showing the whole play area */
+    public void resetView() {
+        showView(RenderView.whole(bounds));
+    }
+
+    private void showView(RenderView next) {
+        view = next;
+        if (viewListener != null) {
+            viewListener.accept(next);
+        }
+    }
+
+    /** Same disc as Circle's fillOval(0, 0, radius, radius), scaled by zoom */
+    private void setSpans(int zoom) {
+        int size = radius * zoom;
+        spanStart = new int[size];
+        spanLength = new int[size];
+        double r = size / 2.0;
+        for (int row = 0; row < size; row++) {
+            double dy = row + 0.5 - r;
+            double half = Math.sqrt(Math.max(0, r * r - dy * dy));
+            int from = (int) Math.round(r - half);
+            int to = (int) Math.round(r + half);
+            spanStart[row] = from;
+            spanLength[row] = Math.max(0, to - from);
+        }
+        spanZoom = zoom;
+    }
+
+    @Override
+    public void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        RenderEvent event = RENDER_EVENTS.isEnabled() ? new RenderEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long start = System.nanoTime();
+        FrameSnapshot frame = frames.latest();
+        RenderView shown = frame.view != null ? frame.view : RenderView.whole(bounds);
+        clear(shown);
+        if (frame.aggregated) {
+            drawDensity(frame.density);
+        } else {
+            drawCircles(frame, shown);
+        }
+        lastAggregated = frame.aggregated;
+        lastZoom = shown.zoom;
+        g.drawImage(image, 0, 0, null);
+        drawMicros.add((System.nanoTime() - start) / 1000);
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.tick = frame.tick;
+            event.circles = frame.count;
+            event.commit();
+        }
+    }
+
+    /**
+     * Sets the obstacles drawn under the circles, null for none. Every pixel
+     * inside one is painted once per view, so drawing them is one copy.
+     * Call on the Swing thread.
+     */
+    public void setObstacles(ObstacleField field) {
+        obstacles = field;
+        background = null;
+        backgroundView = null;
+    }
+
+    /** Draw time of recent frames, for the overlay. Call on the Swing thread. */
+    public String getDrawSummary() {
+        String mode = (lastAggregated ? "heatmap" : "circles") + (lastZoom > 1 ? " x" + lastZoom : "");
+        return String.format("draw us    p50 %d  p99 %d  %s", drawMicros.percentile(0.5), drawMicros.percentile(0.99), mode);
+    }
+
+    /** Clears the image, to the obstacles seen in the view if any */
+    private void clear(RenderView shown) {
+        if (obstacles == null) {
+            Arrays.fill(pixels, 0);
+            return;
+        }
+        if (backgroundView == null || backgroundView.left != shown.left
+                || backgroundView.top != shown.top || backgroundView.zoom != shown.zoom) {
+            int[] filled = new int[pixels.length];
+            for (int py = 0; py < height; py++) {
+                for (int px = 0; px < width; px++) {
+                    if (obstacles.distanceAt(shown.left + px / shown.zoom, shown.top + py / shown.zoom) < 0) {
+                        filled[py * width + px] = OBSTACLE_COLOR;
+                    }
+                }
+            }
+            background = filled;
+            backgroundView = shown;
+        }
+        System.arraycopy(background, 0, pixels, 0, pixels.length);
+    }
+
+    /** Stamps every visible circle of the frame into the image, scaled to the view */
+    private void drawCircles(FrameSnapshot frame, RenderView shown) {
+        int zoom = shown.zoom;
+        if (zoom != spanZoom) {
+            setSpans(zoom);
+        }
+        int[] x = frame.x;
+        int[] y = frame.y;
+        int[] color = frame.color;
+        boolean[] visible = frame.visible;
+        int n = frame.count;
+        for (int i = 0; i < n; i++) {
+            if (visible[i]) {
+                stamp((x[i] - shown.left) * zoom, (y[i] - shown.top) * zoom, 0xFF000000 | color[i]);
+            }
+        }
+    }
+
+    /** Paints one block per non-empty bin, colored by heading and density */
+    private void drawDensity(DensityMap density) {
+        int cols = density.getColumns();
+        int rows = density.getRows();
+        int bin = density.getBinSize();
+        // Brightness level of each bin count, so the log is only taken up to the peak
+        int peak = Math.max(1, density.getPeak());
+        if (levelOf.length <= peak) {
+            levelOf = new int[peak + 1];
+        }
+        double scale = (LEVELS - 1) / Math.log1p(peak);
+        for (int n = 0; n <= peak; n++) {
+            levelOf[n] = (int) (Math.log1p(n) * scale);
+        }
+        for (int r = 0; r < rows; r++) {
+            int y0 = r * bin;
+            int y1 = Math.min(y0 + bin, height);
+            for (int c = 0; c < cols; c++) {
+                int b = r * cols + c;
+                int n = density.count(b);
+                if (n == 0) {
+                    continue;
+                }
+                int level = levelOf[n];
+                int sx = density.sumDx(b);
+                int sy = density.sumDy(b);
+                int argb;
+                if (sx == 0 && sy == 0) {
+                    argb = STILL[level];
+                } else {
+                    argb = PALETTE[hue(sx, sy) * LEVELS + level];
+                }
+                int x0 = c * bin;
+                int x1 = Math.min(x0 + bin, width);
+                for (int yy = y0; yy < y1; yy++) {
+                    Arrays.fill(pixels, yy * width + x0, yy * width + x1, argb);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hue (0 to HUES - 1) for a heading, from its diamond angle: goes once
+     * around as the heading does, like atan2, but without the trigonometry
+     */
+    private static int hue(int sx, int sy) {
+        double ax = Math.abs(sx);
+        double ay = Math.abs(sy);
+        double quarter = sy >= 0 ? (sx >= 0 ? ay / (ax + ay) : 2 - ay / (ax + ay))
+                : (sx < 0 ? 2 + ay / (ax + ay) : 4 - ay / (ax + ay));
+        return (int) (quarter * HUES / 4) % HUES;
+    }
+
+    /**
+     * Fills the disc with its top left corner at (px, py), clipped to the
+     * image: only its rows and runs inside the image are touched, so a
+     * circle zoomed bigger than the view costs no more than the view
+     */
+    private void stamp(int px, int py, int argb) {
+        int rows = spanStart.length;
+        if (px >= width || py >= height || px + rows <= 0 || py + rows <= 0) {
+            return;
+        }
+        int last = Math.min(rows, height - py);
+        for (int row = Math.max(0, -py); row < last; row++) {
+            int from = Math.max(px + spanStart[row], 0);
+            int to = Math.min(px + spanStart[row] + spanLength[row], width);
+            if (from < to) {
+                int base = (py + row) * width;
+                Arrays.fill(pixels, base + from, base + to, argb);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the whole state of a FlockEngine to a binary file and restores it,
+ * so a long run can be paused, resumed later or forked.
+ *
+ * The file holds a versioned header (play area, random state, tick,
+ * strengths, perception, engine modes) followed by the x, y, dx, dy and
+ * color arrays as little endian ints and the visible flags as bytes. Arrays
+ * are copied in bulk through one direct buffer, a few MB at a time, so
+ * millions of circles take a fraction of a second. Restoring needs a flock
+ * with the same radius and play area, and reads the whole file before
+ * changing anything, so a failed load leaves the flock as it was. Call
+ * between ticks, on the thread that ticks the engine.
+ */
+public class FlockCheckpoint {
+
+    public static final int MAGIC = 0x434B4C46; // "FLKC"
+    public static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4 * 4 + 4 * 4 + 8 + 8 + 8 + 4 + 3 * 8 + 4 + 1 + 4 + 4;
+    /** Version 1 ends before the topological k, and is read with k = 0 */
+    private static final int HEADER_BYTES_V1 = HEADER_BYTES - 4;
+
+    /** Bytes moved per channel call */
+    private static final int CHUNK = 4 << 20;
+
+    /** Writes the engine's state to the file, replacing it */
+    public static void save(Path file, FlockEngine engine) throws IOException {
+        FlockState s = engine.getState();
+        FlockKernel k = engine.getKernel();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(HEADER_BYTES);
+            buffer.putInt(s.radius);
+            buffer.putInt(s.xMin);
+            buffer.putInt(s.yMin);
+            buffer.putInt(s.xMax);
+            buffer.putInt(s.yMax);
+            buffer.putLong(s.getSeed());
+            buffer.putLong(s.getEpoch());
+            buffer.putLong(engine.getTick());
+            buffer.putInt(s.count);
+            buffer.putDouble(k.getCoStr());
+            buffer.putDouble(k.getSepStr());
+            buffer.putDouble(k.getAlignStr());
+            buffer.putInt(k.getPerception());
+            buffer.put((byte) (engine.isDoubleBuffered() ? 1 : 0));
+            buffer.putInt(engine.getVerletSkin());
+            buffer.putInt(engine.getTopological());
+
+            int n = s.count;
+            writeInts(channel, buffer, s.x, n);
+            writeInts(channel, buffer, s.y, n);
+            writeInts(channel, buffer, s.dx, n);
+            writeInts(channel, buffer, s.dy, n);
+            writeInts(channel, buffer, s.color, n);
+            for (int i = 0; i < n; i++) {
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer);
+                }
+                buffer.put((byte) (s.visible[i] ? 1 : 0));
+            }
+            drain(channel, buffer);
+        }
+    }
+
+    /**
+     * Replaces the engine's state with the one in the file. The flock must
+     * have the same radius and play area as the one saved. Reads version 1
+     * files too, which turn topological neighbors off.
+     */
+    public static void load(Path file, FlockEngine engine) throws IOException {
+        FlockState s = engine.getState();
+        FlockKernel k = engine.getKernel();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.limit(12);
+            fill(channel, buffer);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a flock checkpoint");
+            }
+            int version = buffer.getInt();
+            int headerBytes = buffer.getInt();
+            if (!(version == VERSION && headerBytes == HEADER_BYTES || version == 1 && headerBytes == HEADER_BYTES_V1)) {
+                throw new IOException("Unsupported checkpoint version " + version);
+            }
+            buffer.clear();
+            buffer.limit(headerBytes - 12);
+            fill(channel, buffer);
+            if (buffer.getInt() != s.radius || buffer.getInt() != s.xMin || buffer.getInt() != s.yMin
+                    || buffer.getInt() != s.xMax || buffer.getInt() != s.yMax) {
+                throw new IOException("Checkpoint was saved with a different circle size or play area");
+            }
+            long seed = buffer.getLong();
+            long epoch = buffer.getLong();
+            long tick = buffer.getLong();
+            int n = buffer.getInt();
+            double cohesion = buffer.getDouble();
+            double separation = buffer.getDouble();
+            double alignment = buffer.getDouble();
+            int perception = buffer.getInt();
+            boolean doubleBuffered = buffer.get() != 0;
+            int verletSkin = buffer.getInt();
+            int topological = version >= 2 ? buffer.getInt() : 0;
+            if (n < 0 || channel.size() != headerBytes + 21L * n) {
+                throw new IOException("Checkpoint file is cut short");
+            }
+
+            // Read everything before touching the flock, so a failure partway
+            // leaves it as it was
+            int[] x = readInts(channel, buffer, n);
+            int[] y = readInts(channel, buffer, n);
+            int[] dx = readInts(channel, buffer, n);
+            int[] dy = readInts(channel, buffer, n);
+            int[] color = readInts(channel, buffer, n);
+            boolean[] visible = new boolean[n];
+            for (int done = 0; done < n; ) {
+                buffer.clear();
+                buffer.limit(Math.min(CHUNK, n - done));
+                fill(channel, buffer);
+                while (buffer.hasRemaining()) {
+                    visible[done++] = buffer.get() != 0;
+                }
+            }
+
+            s.ensureCapacity(n);
+            System.arraycopy(x, 0, s.x, 0, n);
+            System.arraycopy(y, 0, s.y, 0, n);
+            System.arraycopy(dx, 0, s.dx, 0, n);
+            System.arraycopy(dy, 0, s.dy, 0, n);
+            System.arraycopy(color, 0, s.color, 0, n);
+            System.arraycopy(visible, 0, s.visible, 0, n);
+            for (int i = n; i < s.capacity(); i++) {
+                s.visible[i] = false;
+            }
+            s.count = n;
+            s.changes++;
+            s.setRandomState(seed, epoch);
+            k.setCoStr(cohesion);
+            k.setSepStr(separation);
+            k.setAlignStr(alignment);
+            k.setPerception(perception);
+            engine.setDoubleBuffered(doubleBuffered);
+            engine.setVerletSkin(verletSkin);
+            engine.setTopological(topological);
+            engine.setTick(tick);
+        }
+    }
+
+    /** Writes the first n values, through the buffer, in bulk */
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int n) throws IOException {
+        int done = 0;
+        while (done < n) {
+            if (buffer.remaining() < 4) {
+                drain(channel, buffer);
+            }
+            int len = Math.min(n - done, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, done, len);
+            buffer.position(buffer.position() + len * 4);
+            done += len;
+        }
+    }
+
+    /** Reads n values into a new array, through the buffer, in bulk */
+    private static int[] readInts(FileChannel channel, ByteBuffer buffer, int n) throws IOException {
+        int[] values = new int[n];
+        int done = 0;
+        while (done < n) {
+            int len = Math.min(n - done, CHUNK / 4);
+            buffer.clear();
+            buffer.limit(len * 4);
+            fill(channel, buffer);
+            buffer.asIntBuffer().get(values, done, len);
+            done += len;
+        }
+        return values;
+    }
+
+    /** Writes everything in the buffer and empties it */
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Reads until the buffer is full up to its limit, then flips it for reading */
+    private static void fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Checkpoint file is cut short");
+            }
+        }
+        buffer.flip();
+    }
+}
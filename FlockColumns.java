@@ -0,0 +1,35 @@
+/**
+ * The circles of a flock as FlockKernel reads and writes them, so one
+ * kernel steps a flock wherever its columns are kept: int arrays on the
+ * heap (FlockState) or native memory (SegmentFlock).
+ *
+ * Reads give circle i at the current tick. setNext stores where it goes,
+ * in the next buffers for a double-buffered step.
+ */
+public interface FlockColumns {
+
+    /** Fixed size of every circle */
+    int radius();
+
+    /** Bounds circles are kept in, as in FlockState */
+    int xMin();
+
+    int yMin();
+
+    int xMax();
+
+    int yMax();
+
+    int x(int i);
+
+    int y(int i);
+
+    int dx(int i);
+
+    int dy(int i);
+
+    boolean visible(int i);
+
+    /** Stores circle i's location and direction for the next tick */
+    void setNext(int i, int x, int y, int dx, int dy);
+}
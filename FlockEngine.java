@@ -0,0 +1,314 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless driver for one flock: sorts the circles into the grid, steps them
+ * and resolves collisions, once per tick. Needs no window, so it can be used
+ * by the model thread as well as by benchmarks.
+ *
+ * With a parallelism above 1 the step and the collision stage are split
+ * across a ForkJoinPool. Parallel ticks are always double-buffered, and the
+ * step is split over the grid order rather than the index order, so each
+ * chunk covers a band of neighboring cells.
+ */
+public class FlockEngine {
+
+    /** Positions, directions and colors of every circle */
+    private final FlockState state;
+    /** Flocking rules and their strengths */
+    private final FlockKernel kernel = new FlockKernel();
+    /** Grid for finding nearby circles, rebuilt every tick */
+    private final SpatialGrid grid = new SpatialGrid(kernel.getPerception());
+    /** Finds and resolves touching circles after they move */
+    private final CollisionStage collisions = new CollisionStage();
+
+    /** Every circle reads the same tick and writes the next one, instead of moving one after another */
+    private boolean doubleBuffered = false;
+
+    /** Neighbor lists reused across ticks, used when verletSkin is above 0 */
+    private final VerletList verlet = new VerletList();
+    /** Extra distance (pixels) kept in the Verlet lists, 0 turns them off */
+    private int verletSkin = 0;
+
+    /** Tree for k nearest neighbors, used when topologicalK is above 0 */
+    private final KdTree tree = new KdTree();
+    /** Number of nearest circles each circle follows, 0 uses every circle within perception */
+    private int topologicalK = 0;
+
+    /** Number of threads asked for, picked up at the start of the next tick */
+    private volatile int requestedParallelism = 1;
+    /** Number of threads used by the current pool */
+    private int parallelism = 1;
+    /** Pool for parallel ticks, null when running on one thread */
+    private ForkJoinPool pool;
+
+    /** Ticks run so far */
+    private long tick = 0;
+
+    /** Order parameters of the last tick, read by other threads */
+    private volatile FlockOrder order = FlockOrder.EMPTY;
+    /** Union-find scratch for counting clusters, one entry per grid cell */
+    private int[] clusterCells = new int[0];
+
+    /** Time spent (nanoseconds) stepping and resolving collisions on the last tick */
+    private long stepNanos = 0;
+    private long collisionNanos = 0;
+
+    /** Constructor specifies the flock to drive */
+    public FlockEngine(FlockState state) {
+        this.state = state;
+    }
+
+    /** Constructor specifies the flock to drive and the world's steering limit */
+    public FlockEngine(FlockState state, WorldConfig world) {
+        this(state);
+        kernel.setLimit(world.steerLimit);
+    }
+
+    /** Advances the flock by one tick */
+    public void tick() {
+        applyParallelism();
+        long start = System.nanoTime();
+
+        // Advance each circle, summing order parameters along the way
+        kernel.resetOrder();
+        kernel.setTick(tick);
+        if (topologicalK > 0) {
+            stepTopological();
+        } else if (verletSkin > 0) {
+            stepVerlet();
+        } else if (pool != null || doubleBuffered) {
+            stepBuffered();
+        } else {
+            stepInPlace();
+        }
+        // Clusters come from the perception grid of this tick's positions, the tree has none
+        int clusters = topologicalK > 0 ? -1 : countClusters(grid);
+        order = new FlockOrder(tick + 1, kernel.getOrderSums(), clusters);
+        long stepped = System.nanoTime();
+
+        // Check for collisions between circles
+        collisions.detect(state, pool, parallelism * 4);
+        collisions.resolve(state);
+
+        long end = System.nanoTime();
+        stepNanos = stepped - start;
+        collisionNanos = end - stepped;
+        tick++;
+    }
+
+    /** One circle after another, each seeing the ones before it already moved */
+    private void stepInPlace() {
+        // Sort circles into cells once so each circle only visits its neighbors
+        grid.setCellSize(kernel.getPerception());
+        grid.rebuild(state.x, state.y, state.visible, state.count);
+        kernel.step(state, grid, 0, state.count);
+    }
+
+    /** Every circle reads this tick and writes the next, in grid order */
+    private void stepBuffered() {
+        // The grid also keeps sorted copies for the neighbor kernel to read
+        grid.setCellSize(kernel.getPerception());
+        grid.rebuild(state.x, state.y, state.dx, state.dy, state.visible, state.count);
+        state.ensureNextBuffers();
+        if (pool != null) {
+            pool.invoke(new StepTask(0, grid.size(), grain(grid.size()), GRID));
+        } else {
+            kernel.stepBuffered(state, grid, 0, grid.size());
+        }
+        kernel.carryHidden(state, 0, state.count);
+        state.swap();
+    }
+
+    /** Buffered step with neighbors from the Verlet lists, which are only rebuilt as circles move */
+    private void stepVerlet() {
+        // The lists' own grid is wider and older, so the clusters get their own
+        grid.setCellSize(kernel.getPerception());
+        grid.rebuild(state.x, state.y, state.visible, state.count);
+        // Lists are only rebuilt once circles have moved far enough
+        verlet.update(state, kernel.getPerception(), verletSkin);
+        state.ensureNextBuffers();
+        if (pool != null) {
+            pool.invoke(new StepTask(0, state.count, grain(state.count), VERLET));
+        } else {
+            kernel.stepVerlet(state, verlet, 0, state.count);
+        }
+        kernel.carryHidden(state, 0, state.count);
+        state.swap();
+    }
+
+    /** Buffered step with each circle following its k nearest, found with a tree built this tick */
+    private void stepTopological() {
+        tree.build(state, pool);
+        state.ensureNextBuffers();
+        if (pool != null) {
+            pool.invoke(new StepTask(0, state.count, grain(state.count), TOPOLOGICAL));
+        } else {
+            kernel.stepTopological(state, tree, topologicalK, 0, state.count);
+        }
+        kernel.carryHidden(state, 0, state.count);
+        state.swap();
+    }
+
+    public FlockState getState() {
+        return state;
+    }
+
+    public FlockKernel getKernel() {
+        return kernel;
+    }
+
+    /** Ticks run so far */
+    public long getTick() {
+        return tick;
+    }
+
+    /** Sets the tick counter, e.g. when restoring a checkpoint */
+    public void setTick(long t) {tick = t;}
+
+    /** Order parameters (center of mass, polarization, ...) of the last tick, safe from any thread */
+    public FlockOrder getOrder() {
+        return order;
+    }
+
+    /** Time (nanoseconds) the last tick spent on the grid and the step */
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    /** Time (nanoseconds) the last tick spent finding and resolving collisions */
+    public long getCollisionNanos() {
+        return collisionNanos;
+    }
+
+    /** Number of touching pairs found on the last tick */
+    public int getContactCount() {
+        return collisions.getContactCount();
+    }
+
+    /** Double-buffered ticks: results no longer depend on the order of the circles */
+    public void setDoubleBuffered(boolean on) {
+        doubleBuffered = on;
+    }
+
+    public boolean isDoubleBuffered() {
+        return doubleBuffered;
+    }
+
+    /**
+     * Keeps neighbor lists across ticks with this much extra distance
+     * (pixels); 0 turns them off. Ticks with lists are always double-buffered.
+     */
+    public void setVerletSkin(int skin) {
+        verletSkin = Math.max(0, skin);
+    }
+
+    public int getVerletSkin() {
+        return verletSkin;
+    }
+
+    /**
+     * Makes each circle follow its k nearest circles, however far, instead of
+     * every circle within perception; 0 goes back to perception. Ticks with k
+     * nearest are always double-buffered and take precedence over Verlet lists.
+     */
+    public void setTopological(int k) {
+        topologicalK = Math.max(0, k);
+    }
+
+    public int getTopological() {
+        return topologicalK;
+    }
+
+    /** The Verlet lists, for their rebuild metrics */
+    public VerletList getVerlet() {
+        return verlet;
+    }
+
+    /**
+     * Sets the number of threads used for a tick, 1 runs on the calling
+     * thread. Safe to call while ticking; takes effect on the next tick.
+     */
+    public void setParallelism(int threads) {
+        requestedParallelism = Math.max(1, threads);
+    }
+
+    public int getParallelism() {
+        return requestedParallelism;
+    }
+
+    /** Stops the pool threads, if any */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        parallelism = 1;
+    }
+
+    private void applyParallelism() {
+        int wanted = requestedParallelism;
+        if (wanted == parallelism) {
+            return;
+        }
+        shutdown();
+        if (wanted > 1) {
+            pool = new ForkJoinPool(wanted);
+            parallelism = wanted;
+        }
+    }
+
+    private int countClusters(SpatialGrid cells) {
+        int size = cells.getColumns() * cells.getRows();
+        if (clusterCells.length < size) {
+            clusterCells = new int[size];
+        }
+        return FlockOrder.countClusters(cells, clusterCells);
+    }
+
+    /** Smallest chunk worth handing to another thread */
+    private int grain(int size) {
+        return Math.max(256, size / (parallelism * 8));
+    }
+
+    /** What a StepTask steps with */
+    private static final int GRID = 0;
+    private static final int VERLET = 1;
+    private static final int TOPOLOGICAL = 2;
+
+    /**
+     * Steps the circles at grid positions from .. to (or circle indices, with
+     * Verlet lists or the tree), splitting in half until small enough
+     */
+    private class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final int neighbors;
+
+        StepTask(int from, int to, int grain, int neighbors) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.neighbors = neighbors;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                if (neighbors == TOPOLOGICAL) {
+                    kernel.stepTopological(state, tree, topologicalK, from, to);
+                } else if (neighbors == VERLET) {
+                    kernel.stepVerlet(state, verlet, from, to);
+                } else {
+                    kernel.stepBuffered(state, grid, from, to);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new StepTask(from, mid, grain, neighbors), new StepTask(mid, to, grain, neighbors));
+            }
+        }
+    }
+}
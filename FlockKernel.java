@@ -0,0 +1,779 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flocking step that works directly on the arrays of a FlockState.
+ *
+ * Same rules as the original Circle.step: cohesion, alignment and separation
+ * over the circles within perception distance, weighted by the strengths,
+ * with the change in direction limited each tick and a bounce off the walls.
+ * With obstacles set, circles near one also turn away from it, read from
+ * the obstacles' precomputed distance field.
+ *
+ * Three knobs trade accuracy for time, all off by default (see
+ * QualityGovernor): a cap on the candidates each circle looks at (its own
+ * row of cells first, so the closest are kept), sampling every n-th
+ * candidate for the averages, and letting circles far from a focus point
+ * coast in a straight line on all but every n-th tick.
+ *
+ * The rules read and write circles through FlockColumns, so stepColumns
+ * runs them on a flock kept off the heap (see SegmentFlock) as well.
+ */
+public class FlockKernel {
+
+    /** Strength of cohesion behavior */
+    private double cohesionStr = 100;
+    /** Strength of separation behavior */
+    private double separationStr = 100;
+    /** Strength of alignment behavior */
+    private double alignmentStr = 100;
+    /** How far (in pixels) a circle can see other circles */
+    private int perception = 100;
+    /** Largest change in direction per tick */
+    private int limit = 5;
+    /** Perception is capped so squared distances fit in an int lane */
+    public static final int MAX_PERCEPTION = 10000;
+
+    /** Static obstacles to steer around, null for none */
+    private ObstacleField obstacles = null;
+    /** Strength of obstacle avoidance */
+    private double avoidStr = 100;
+    /** How close (in pixels) to an obstacle a circle starts turning away */
+    private int avoidDistance = 40;
+
+    /** Most candidates a circle looks at per tick, 0 for no cap */
+    private int neighborCap = 0;
+    /** Only every n-th candidate is summed, 1 sums them all */
+    private int sampleStride = 1;
+    /** Circles farther than focusRadius from the focus steer every n-th tick, 1 for every tick */
+    private int farInterval = 1;
+    private int focusX = 0;
+    private int focusY = 0;
+    private long focusRadiusSq = Long.MAX_VALUE;
+    /** Tick being stepped, picks the sampled candidates and which far circles steer */
+    private long tick = 0;
+
+    /** Rows around a circle's own row, in the order they are scanned */
+    private static final int[] ROW_ORDER = {0, -1, 1};
+
+    /** Sums neighbors for buffered steps, SIMD when the Vector API is there */
+    private NeighborKernel neighbors = NeighborKernel.select();
+
+    /** Candidate neighbors looked at, added once per step call so threads rarely contend */
+    private final LongAdder visits = new LongAdder();
+    /** Order sums of the current tick (see FlockOrder), added once per step call */
+    private final double[] orderSums = new double[FlockOrder.SUMS];
+
+    /** Set strength of dynamic cohesion */
+    public void setCoStr(double v) {cohesionStr = v;}
+    /** Set strength of dynamic separation */
+    public void setSepStr(double v) {separationStr = v;}
+    /** Set strength of dynamic alignment */
+    public void setAlignStr(double v) {alignmentStr = v;}
+    /** Set how far circles can see each other (at least 1 pixel) */
+    public void setPerception(int v) {perception = Math.max(1, Math.min(MAX_PERCEPTION, v));}
+    /** Set the largest change in direction per tick */
+    public void setLimit(int v) {limit = Math.max(0, v);}
+    /** Set the obstacles to steer around, null for none. Call between ticks. */
+    public void setObstacles(ObstacleField v) {obstacles = v;}
+    /** Set strength of obstacle avoidance */
+    public void setAvoidStr(double v) {avoidStr = v;}
+    /** Set how close to an obstacle circles start turning away (at least 1 pixel) */
+    public void setAvoidDistance(int v) {avoidDistance = Math.max(1, v);}
+
+    /** Set the most candidates a circle looks at per tick, 0 for no cap */
+    public void setNeighborCap(int v) {neighborCap = Math.max(0, v);}
+    /** Set the sampling: only every n-th candidate is summed (1 for all) */
+    public void setSampleStride(int v) {sampleStride = Math.max(1, v);}
+    /** Set the tick being stepped, call before stepping it */
+    public void setTick(long t) {tick = t;}
+
+    /**
+     * Lets circles farther than radius from (x, y) steer only every
+     * interval ticks, moving straight on in between; 1 steers every circle
+     * every tick
+     */
+    public void setFocus(int x, int y, int radius, int interval) {
+        focusX = x;
+        focusY = y;
+        focusRadiusSq = (long) radius * radius;
+        farInterval = Math.max(1, interval);
+    }
+
+    public int getNeighborCap() {
+        return neighborCap;
+    }
+
+    public int getSampleStride() {
+        return sampleStride;
+    }
+
+    public int getFarInterval() {
+        return farInterval;
+    }
+
+    public ObstacleField getObstacles() {
+        return obstacles;
+    }
+
+    public double getAvoidStr() {
+        return avoidStr;
+    }
+
+    public int getAvoidDistance() {
+        return avoidDistance;
+    }
+
+    public int getPerception() {
+        return perception;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public double getCoStr() {
+        return cohesionStr;
+    }
+
+    public double getSepStr() {
+        return separationStr;
+    }
+
+    public double getAlignStr() {
+        return alignmentStr;
+    }
+
+    /** Advances circles from (inclusive) to to (exclusive) in place, using a grid built this tick */
+    public void step(FlockState s, SpatialGrid grid, int from, int to) {
+        FlockColumns live = new InPlace(s);
+        long[] sums = new long[NeighborKernel.SUMS];
+        double[] order = new double[FlockOrder.SUMS];
+        long visited = 0;
+        for (int i = from; i < to; i++) {
+            if (!s.visible[i]) {
+                continue;
+            }
+            if (coasts(live, i)) {
+                move(live, i, s.dx[i], s.dy[i], Long.MAX_VALUE, order);
+            } else {
+                visited += sumInPlace(live, grid, i, i, sums);
+                apply(live, i, sums, order);
+            }
+        }
+        visits.add(visited);
+        addOrder(order);
+    }
+
+    /**
+     * Advances the circles at grid positions from .. to into the next buffers
+     * of the state. Every circle sees the same tick no matter the order, so
+     * separate ranges can run on separate threads; neighboring positions are in
+     * neighboring cells, which keeps a range's reads close together. Neighbors
+     * are read from the grid's sorted copies with the neighbor kernel.
+     * Hidden circles are not in the grid, see carryHidden. The caller swaps the
+     * state once all ranges are done.
+     */
+    public void stepBuffered(FlockState s, SpatialGrid grid, int from, int to) {
+        long[] sums = new long[NeighborKernel.SUMS];
+        double[] order = new double[FlockOrder.SUMS];
+        long visited = 0;
+        for (int k = from; k < to; k++) {
+            int i = grid.item(k);
+            if (coasts(s, i)) {
+                move(s, i, s.dx[i], s.dy[i], Long.MAX_VALUE, order);
+            } else {
+                visited += sumSorted(s, grid, k, sums);
+                apply(s, i, sums, order);
+            }
+        }
+        visits.add(visited);
+        addOrder(order);
+    }
+
+    /**
+     * Advances circles from (inclusive) to to (exclusive) into the next
+     * buffers, taking neighbors from Verlet lists instead of the grid. The
+     * lists hold everything within perception + skin, so each entry is
+     * checked against the real perception distance first.
+     */
+    public void stepVerlet(FlockState s, VerletList lists, int from, int to) {
+        long[] sums = new long[NeighborKernel.SUMS];
+        double[] order = new double[FlockOrder.SUMS];
+        long visited = 0;
+        for (int i = from; i < to; i++) {
+            if (!s.visible[i]) {
+                continue;
+            }
+            if (coasts(s, i)) {
+                move(s, i, s.dx[i], s.dy[i], Long.MAX_VALUE, order);
+            } else {
+                visited += sumVerlet(s, lists, i, sums);
+                apply(s, i, sums, order);
+            }
+        }
+        visits.add(visited);
+        addOrder(order);
+    }
+
+    /**
+     * Advances circles from (inclusive) to to (exclusive) into the next
+     * buffers, each steered by its k nearest circles however far away they
+     * are (topological neighbors) instead of every circle within perception.
+     * The tree must have been built this tick.
+     */
+    public void stepTopological(FlockState s, KdTree tree, int k, int from, int to) {
+        long[] sums = new long[NeighborKernel.SUMS];
+        double[] order = new double[FlockOrder.SUMS];
+        KdTree.Neighbors found = new KdTree.Neighbors(k);
+        long visited = 0;
+        for (int i = from; i < to; i++) {
+            if (!s.visible[i]) {
+                continue;
+            }
+            if (coasts(s, i)) {
+                move(s, i, s.dx[i], s.dy[i], Long.MAX_VALUE, order);
+            } else {
+                tree.nearest(s.x[i], s.y[i], i, found);
+                sumNearest(s, i, found, sums);
+                visited += found.count;
+                apply(s, i, sums, order);
+            }
+        }
+        visits.add(visited);
+        addOrder(order);
+    }
+
+    /**
+     * Advances the circles at grid positions from .. to of a flock kept
+     * outside a FlockState (see SegmentFlock) into its next buffers, with
+     * the same rules and knobs as the steps above. Neighbors are read
+     * through the columns, as in the in-place step.
+     */
+    public void stepColumns(FlockColumns c, CellGrid grid, int from, int to) {
+        long[] sums = new long[NeighborKernel.SUMS];
+        double[] order = new double[FlockOrder.SUMS];
+        long visited = 0;
+        for (int k = from; k < to; k++) {
+            int i = grid.item(k);
+            if (coasts(c, i)) {
+                move(c, i, c.dx(i), c.dy(i), Long.MAX_VALUE, order);
+            } else {
+                visited += sumInPlace(c, grid, i, k, sums);
+                apply(c, i, sums, order);
+            }
+        }
+        visits.add(visited);
+        addOrder(order);
+    }
+
+    /** Copies hidden circles from .. to into the next buffers */
+    public void carryHidden(FlockState s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!s.visible[i]) {
+                s.nextX[i] = s.x[i];
+                s.nextY[i] = s.y[i];
+                s.nextDx[i] = s.dx[i];
+                s.nextDy[i] = s.dy[i];
+            }
+        }
+    }
+
+    /** Sets the kernel that sums neighbors for buffered steps */
+    public void setNeighborKernel(NeighborKernel k) {
+        neighbors = k;
+    }
+
+    public NeighborKernel getNeighborKernel() {
+        return neighbors;
+    }
+
+    /** Starts the order sums over, call before stepping a tick */
+    public synchronized void resetOrder() {
+        Arrays.fill(orderSums, 0);
+    }
+
+    /** Order sums of the steps since resetOrder, see FlockOrder */
+    public synchronized double[] getOrderSums() {
+        return orderSums;
+    }
+
+    private synchronized void addOrder(double[] partial) {
+        for (int k = 0; k < FlockOrder.SUMS; k++) {
+            orderSums[k] += partial[k];
+        }
+    }
+
+    /** Candidate neighbors looked at by all steps so far */
+    public long getNeighborVisits() {
+        return visits.sum();
+    }
+
+    /**
+     * Sums the neighbors of circle i reading through the columns: in the
+     * in-place step circles that already moved this tick are seen at their
+     * new location. Sampled candidates are picked from at (the slot, or the
+     * grid position as in the buffered step). Returns the number of
+     * candidates looked at.
+     */
+    private int sumInPlace(FlockColumns c, CellGrid grid, int i, int at, long[] sums) {
+        int xi = c.x(i);
+        int yi = c.y(i);
+        long sepX = 0;
+        long sepY = 0;
+        long alignX = 0;
+        long alignY = 0;
+        long cohX = 0;
+        long cohY = 0;
+        int inRange = 0;
+        int touchingCount = 0;
+        long nearest = Long.MAX_VALUE;
+
+        long perceptionSq = (long) perception * perception;
+        long touching = 2L * c.radius();
+        long touchingSq = touching * touching;
+
+        // Cells next to each other in a row are next to each other in the grid,
+        // so each of the 3 rows around this circle is one slice.
+        int col = grid.column(xi);
+        int row = grid.row(yi);
+        int firstCol = Math.max(col - 1, 0);
+        int lastCol = Math.min(col + 1, grid.getColumns() - 1);
+        int firstRow = Math.max(row - 1, 0);
+        int lastRow = Math.min(row + 1, grid.getRows() - 1);
+
+        int cap = neighborCap > 0 ? neighborCap : Integer.MAX_VALUE;
+        int stride = sampleStride;
+        int phase = (int) ((at + tick) % stride);
+        int visited = 0;
+        for (int n = 0; n < ROW_ORDER.length && visited < cap; n++) {
+            int r = row + ROW_ORDER[n];
+            if (r < firstRow || r > lastRow) {
+                continue;
+            }
+            int start = grid.cellStart(firstCol, r) + phase;
+            int end = limit(start, grid.cellEnd(lastCol, r), stride, cap - visited);
+            for (int k = start; k < end; k += stride) {
+                visited++;
+                int j = grid.item(k);
+                if (j == i || !c.visible(j)) {
+                    continue;
+                }
+
+                long ox = c.x(j) - xi;
+                long oy = c.y(j) - yi;
+                long distanceSq = ox * ox + oy * oy;
+                if (distanceSq > perceptionSq) {
+                    continue;
+                }
+                if (distanceSq < touchingSq) {
+                    sepX -= ox;
+                    sepY -= oy;
+                    touchingCount++;
+                }
+                nearest = Math.min(nearest, distanceSq);
+
+                alignX += c.dx(j);
+                alignY += c.dy(j);
+
+                cohX += ox;
+                cohY += oy;
+                inRange++;
+            }
+        }
+        sums[NeighborKernel.SEP_X] = sepX;
+        sums[NeighborKernel.SEP_Y] = sepY;
+        sums[NeighborKernel.ALIGN_X] = alignX;
+        sums[NeighborKernel.ALIGN_Y] = alignY;
+        sums[NeighborKernel.COH_X] = cohX;
+        sums[NeighborKernel.COH_Y] = cohY;
+        sums[NeighborKernel.IN_RANGE] = inRange;
+        sums[NeighborKernel.TOUCHING] = touchingCount;
+        sums[NeighborKernel.NEAREST_SQ] = nearest;
+        return visited;
+    }
+
+    /** Sums the neighbors of circle i found in its Verlet list, returns the list length */
+    private int sumVerlet(FlockState s, VerletList lists, int i, long[] sums) {
+        int[] x = s.x;
+        int[] y = s.y;
+        int[] dx = s.dx;
+        int[] dy = s.dy;
+        int[] list = lists.getNeighbors();
+        int xi = x[i];
+        int yi = y[i];
+        long perceptionSq = (long) perception * perception;
+        long touching = 2L * s.radius;
+        long touchingSq = touching * touching;
+
+        long sepX = 0;
+        long sepY = 0;
+        long alignX = 0;
+        long alignY = 0;
+        long cohX = 0;
+        long cohY = 0;
+        int inRange = 0;
+        int touchingCount = 0;
+        long nearest = Long.MAX_VALUE;
+        int stride = sampleStride;
+        int first = lists.start(i) + (int) ((i + tick) % stride);
+        int end = limit(first, lists.end(i), stride, neighborCap > 0 ? neighborCap : Integer.MAX_VALUE);
+        int visited = 0;
+        for (int k = first; k < end; k += stride) {
+            visited++;
+            int j = list[k];
+            long ox = x[j] - xi;
+            long oy = y[j] - yi;
+            long distanceSq = ox * ox + oy * oy;
+            if (distanceSq > perceptionSq) {
+                continue;
+            }
+            if (distanceSq < touchingSq) {
+                sepX -= ox;
+                sepY -= oy;
+                touchingCount++;
+            }
+            nearest = Math.min(nearest, distanceSq);
+            alignX += dx[j];
+            alignY += dy[j];
+            cohX += ox;
+            cohY += oy;
+            inRange++;
+        }
+        sums[NeighborKernel.SEP_X] = sepX;
+        sums[NeighborKernel.SEP_Y] = sepY;
+        sums[NeighborKernel.ALIGN_X] = alignX;
+        sums[NeighborKernel.ALIGN_Y] = alignY;
+        sums[NeighborKernel.COH_X] = cohX;
+        sums[NeighborKernel.COH_Y] = cohY;
+        sums[NeighborKernel.IN_RANGE] = inRange;
+        sums[NeighborKernel.TOUCHING] = touchingCount;
+        sums[NeighborKernel.NEAREST_SQ] = nearest;
+        return visited;
+    }
+
+    /** Sums the k nearest neighbors of circle i found by the tree */
+    private void sumNearest(FlockState s, int i, KdTree.Neighbors found, long[] sums) {
+        int[] x = s.x;
+        int[] y = s.y;
+        int[] dx = s.dx;
+        int[] dy = s.dy;
+        int xi = x[i];
+        int yi = y[i];
+        long touching = 2L * s.radius;
+        long touchingSq = touching * touching;
+
+        long sepX = 0;
+        long sepY = 0;
+        long alignX = 0;
+        long alignY = 0;
+        long cohX = 0;
+        long cohY = 0;
+        int touchingCount = 0;
+        long nearest = Long.MAX_VALUE;
+        for (int n = 0; n < found.count; n++) {
+            int j = found.index[n];
+            long ox = x[j] - xi;
+            long oy = y[j] - yi;
+            long distanceSq = found.distanceSq[n];
+            if (distanceSq < touchingSq) {
+                sepX -= ox;
+                sepY -= oy;
+                touchingCount++;
+            }
+            nearest = Math.min(nearest, distanceSq);
+            alignX += dx[j];
+            alignY += dy[j];
+            cohX += ox;
+            cohY += oy;
+        }
+        sums[NeighborKernel.SEP_X] = sepX;
+        sums[NeighborKernel.SEP_Y] = sepY;
+        sums[NeighborKernel.ALIGN_X] = alignX;
+        sums[NeighborKernel.ALIGN_Y] = alignY;
+        sums[NeighborKernel.COH_X] = cohX;
+        sums[NeighborKernel.COH_Y] = cohY;
+        sums[NeighborKernel.IN_RANGE] = found.count;
+        sums[NeighborKernel.TOUCHING] = touchingCount;
+        sums[NeighborKernel.NEAREST_SQ] = nearest;
+    }
+
+    /**
+     * Sums the neighbors of the circle at grid position k from the grid's
+     * sorted copies, returns the number of candidates looked at
+     */
+    private int sumSorted(FlockState s, SpatialGrid grid, int k, long[] sums) {
+        Arrays.fill(sums, 0);
+        sums[NeighborKernel.NEAREST_SQ] = Long.MAX_VALUE;
+        int[] x = grid.sortedX();
+        int[] y = grid.sortedY();
+        int xi = x[k];
+        int yi = y[k];
+        int perceptionSq = perception * perception;
+        int touchingSq = 4 * s.radius * s.radius;
+
+        int col = grid.column(xi);
+        int row = grid.row(yi);
+        int firstCol = Math.max(col - 1, 0);
+        int lastCol = Math.min(col + 1, grid.getColumns() - 1);
+        int firstRow = Math.max(row - 1, 0);
+        int lastRow = Math.min(row + 1, grid.getRows() - 1);
+
+        int cap = neighborCap > 0 ? neighborCap : Integer.MAX_VALUE;
+        int stride = sampleStride;
+        int phase = (int) ((k + tick) % stride);
+        int visited = 0;
+        for (int n = 0; n < ROW_ORDER.length && visited < cap; n++) {
+            int r = row + ROW_ORDER[n];
+            if (r < firstRow || r > lastRow) {
+                continue;
+            }
+            int start = grid.cellStart(firstCol, r);
+            if (stride == 1) {
+                int end = limit(start, grid.cellEnd(lastCol, r), 1, cap - visited);
+                visited += end - start;
+                neighbors.accumulate(x, y, grid.sortedDx(), grid.sortedDy(),
+                        start, end, k, xi, yi, perceptionSq, touchingSq, sums);
+            } else {
+                start += phase;
+                int end = limit(start, grid.cellEnd(lastCol, r), stride, cap - visited);
+                visited += (Math.max(0, end - start) + stride - 1) / stride;
+                sampleSorted(x, y, grid.sortedDx(), grid.sortedDy(),
+                        start, end, stride, k, xi, yi, perceptionSq, touchingSq, sums);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * End of a scan from start to end taking every stride-th candidate,
+     * cut short after room of them
+     */
+    private static int limit(int start, int end, int stride, int room) {
+        return (int) Math.min(end, start + (long) room * stride);
+    }
+
+    /**
+     * NeighborKernel.accumulate over every stride-th position from .. to of
+     * the sorted arrays. Averages come out the same on average, from fewer
+     * neighbors.
+     */
+    private static void sampleSorted(int[] x, int[] y, int[] dx, int[] dy, int from, int to, int stride,
+            int self, int xi, int yi, int perceptionSq, int touchingSq, long[] sums) {
+        long sepX = 0;
+        long sepY = 0;
+        long alignX = 0;
+        long alignY = 0;
+        long cohX = 0;
+        long cohY = 0;
+        int inRange = 0;
+        int touching = 0;
+        int nearest = Integer.MAX_VALUE;
+        for (int k = from; k < to; k += stride) {
+            int ox = x[k] - xi;
+            int oy = y[k] - yi;
+            int distanceSq = ox * ox + oy * oy;
+            if (k == self || distanceSq > perceptionSq) {
+                continue;
+            }
+            if (distanceSq < touchingSq) {
+                sepX -= ox;
+                sepY -= oy;
+                touching++;
+            }
+            nearest = Math.min(nearest, distanceSq);
+            alignX += dx[k];
+            alignY += dy[k];
+            cohX += ox;
+            cohY += oy;
+            inRange++;
+        }
+        sums[NeighborKernel.SEP_X] += sepX;
+        sums[NeighborKernel.SEP_Y] += sepY;
+        sums[NeighborKernel.ALIGN_X] += alignX;
+        sums[NeighborKernel.ALIGN_Y] += alignY;
+        sums[NeighborKernel.COH_X] += cohX;
+        sums[NeighborKernel.COH_Y] += cohY;
+        sums[NeighborKernel.IN_RANGE] += inRange;
+        sums[NeighborKernel.TOUCHING] += touching;
+        if (nearest != Integer.MAX_VALUE) {
+            sums[NeighborKernel.NEAREST_SQ] = Math.min(sums[NeighborKernel.NEAREST_SQ], nearest);
+        }
+    }
+
+    /** True when circle i is far from the focus and moves straight on this tick instead of steering */
+    private boolean coasts(FlockColumns c, int i) {
+        if (farInterval <= 1 || (i + tick) % farInterval == 0) {
+            return false;
+        }
+        long ox = c.x(i) - focusX;
+        long oy = c.y(i) - focusY;
+        return ox * ox + oy * oy > focusRadiusSq;
+    }
+
+    /**
+     * Turns the neighbor sums of circle i into a new direction and location,
+     * with the same rules as the original Circle.step, and stores them with
+     * setNext. Adds the circle to the order sums as it goes.
+     */
+    private void apply(FlockColumns c, int i, long[] sums, double[] order) {
+        int xi = c.x(i);
+        int yi = c.y(i);
+        long sepX = 0;
+        long sepY = 0;
+        long alignX = 0;
+        long alignY = 0;
+        long cohX = 0;
+        long cohY = 0;
+
+        long inRange = sums[NeighborKernel.IN_RANGE];
+        // Touching circles are counted twice, as in the original
+        long count = inRange + sums[NeighborKernel.TOUCHING];
+        if (count > 0) {
+            sepX = -(sums[NeighborKernel.SEP_X] / count);
+            sepY = -(sums[NeighborKernel.SEP_Y] / count);
+
+            alignX = sums[NeighborKernel.ALIGN_X] / count;
+            alignY = sums[NeighborKernel.ALIGN_Y] / count;
+
+            // Sums are kept relative to this circle, put the location back first
+            cohX = ((sums[NeighborKernel.COH_X] + inRange * xi) / count - xi) / 100;
+            cohY = ((sums[NeighborKernel.COH_Y] + inRange * yi) / count - yi) / 100;
+        }
+
+        // Limiting the change in direction
+        double coW = cohesionStr / 100;
+        double sepW = separationStr / 100;
+        double alignW = alignmentStr / 100;
+        double avoidX = 0;
+        double avoidY = 0;
+        ObstacleField field = obstacles;
+        if (field != null) {
+            // One lookup at the circle's center, however many obstacles there are
+            int cell = field.cell(xi + c.radius() / 2, yi + c.radius() / 2);
+            float distance = field.distance(cell);
+            if (distance < avoidDistance) {
+                // Harder the closer it gets, hardest inside an obstacle
+                double push = Math.min(2, (avoidDistance - distance) / avoidDistance) * 2 * limit * avoidStr / 100;
+                avoidX = field.gradientX(cell) * push;
+                avoidY = field.gradientY(cell) * push;
+            }
+        }
+        int forX = (int) ((sepX * sepW) + (alignX * alignW) + (cohX * coW) + avoidX);
+        int forY = (int) ((sepY * sepW) + (alignY * alignW) + (cohY * coW) + avoidY);
+        forX = Math.max(-limit, Math.min(limit, forX));
+        forY = Math.max(-limit, Math.min(limit, forY));
+
+        move(c, i, c.dx(i) + forX, c.dy(i) + forY, sums[NeighborKernel.NEAREST_SQ], order);
+    }
+
+    /**
+     * Moves circle i one tick in its new direction, bouncing off the walls,
+     * stores it with setNext and adds it to the order sums
+     */
+    private void move(FlockColumns c, int i, int newDx, int newDy, long nearestSq, double[] order) {
+        int newX = c.x(i) + newDx;
+        int newY = c.y(i) + newDy;
+
+        // Boundary checks
+        int xMin = c.xMin();
+        int xMax = c.xMax();
+        int yMin = c.yMin();
+        int yMax = c.yMax();
+        if (newX < xMin || newX > xMax) {
+            newX = Math.max(xMin, Math.min(xMax, newX));
+            newDx = -newDx;
+        }
+        if (newY < yMin || newY > yMax) {
+            newY = Math.max(yMin, Math.min(yMax, newY));
+            newDy = -newDy;
+        }
+
+        c.setNext(i, newX, newY, newDx, newDy);
+
+        // Order parameters, from values already at hand
+        order[FlockOrder.CIRCLES]++;
+        order[FlockOrder.SUM_X] += newX;
+        order[FlockOrder.SUM_Y] += newY;
+        order[FlockOrder.SUM_DX] += newDx;
+        order[FlockOrder.SUM_DY] += newDy;
+        order[FlockOrder.CROSS] += (double) newX * newDy - (double) newY * newDx;
+        if (newDx != 0 || newDy != 0) {
+            double length = Math.sqrt((double) newDx * newDx + (double) newDy * newDy);
+            order[FlockOrder.HEADING_X] += newDx / length;
+            order[FlockOrder.HEADING_Y] += newDy / length;
+            order[FlockOrder.MOVING]++;
+        }
+        if (nearestSq != Long.MAX_VALUE) {
+            order[FlockOrder.NEAREST] += Math.sqrt(nearestSq);
+            order[FlockOrder.WITH_NEIGHBOR]++;
+        }
+    }
+
+    /** A FlockState read and written in its current arrays, for the in-place step */
+    private static class InPlace implements FlockColumns {
+        private final FlockState s;
+
+        InPlace(FlockState s) {
+            this.s = s;
+        }
+
+        @Override
+        public int radius() {
+            return s.radius;
+        }
+
+        @Override
+        public int xMin() {
+            return s.xMin;
+        }
+
+        @Override
+        public int yMin() {
+            return s.yMin;
+        }
+
+        @Override
+        public int xMax() {
+            return s.xMax;
+        }
+
+        @Override
+        public int yMax() {
+            return s.yMax;
+        }
+
+        @Override
+        public int x(int i) {
+            return s.x[i];
+        }
+
+        @Override
+        public int y(int i) {
+            return s.y[i];
+        }
+
+        @Override
+        public int dx(int i) {
+            return s.dx[i];
+        }
+
+        @Override
+        public int dy(int i) {
+            return s.dy[i];
+        }
+
+        @Override
+        public boolean visible(int i) {
+            return s.visible[i];
+        }
+
+        @Override
+        public void setNext(int i, int px, int py, int pdx, int pdy) {
+            s.x[i] = px;
+            s.y[i] = py;
+            s.dx[i] = pdx;
+            s.dy[i] = pdy;
+        }
+    }
+}
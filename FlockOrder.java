@@ -0,0 +1,145 @@
+/**
+ * Order parameters of the flock at one tick: center of mass, mean
+ * direction, polarization, angular momentum, mean nearest-neighbor distance
+ * and cluster count.
+ *
+ * They are by-products of the step: FlockKernel adds each circle's new
+ * location and direction, and the nearest distance its neighbor loop
+ * already saw, into a few running sums (indexed by the constants below),
+ * so no extra pass over the flock is needed. Clusters are counted on the
+ * occupied cells of the step's grid. Values are measured as circles are
+ * stepped, before collisions are resolved. Immutable, safe to hand to
+ * other threads.
+ */
+public class FlockOrder {
+
+    /** Running sums filled by FlockKernel: circles stepped and their locations */
+    public static final int CIRCLES = 0;
+    public static final int SUM_X = 1;
+    public static final int SUM_Y = 2;
+    /** Sum of directions */
+    public static final int SUM_DX = 3;
+    public static final int SUM_DY = 4;
+    /** Sum of unit headings, and the number of circles that were moving */
+    public static final int HEADING_X = 5;
+    public static final int HEADING_Y = 6;
+    public static final int MOVING = 7;
+    /** Sum of x * dy - y * dx */
+    public static final int CROSS = 8;
+    /** Sum of nearest-neighbor distances, and the number of circles that had a neighbor */
+    public static final int NEAREST = 9;
+    public static final int WITH_NEIGHBOR = 10;
+    /** Length of the sums array */
+    public static final int SUMS = 11;
+
+    /** Order of a flock with no circles */
+    public static final FlockOrder EMPTY = new FlockOrder(0, new double[SUMS], 0);
+
+    /** Tick these were measured on */
+    public final long tick;
+    /** Visible circles stepped */
+    public final int circles;
+    /** Average location */
+    public final double centerX;
+    public final double centerY;
+    /** Average direction */
+    public final double directionX;
+    public final double directionY;
+    /** Length of the average heading: 1 when every circle goes the same way, near 0 when random */
+    public final double polarization;
+    /**
+     * Angular momentum about the center of mass per circle (pixels squared
+     * per tick); large when the flock mills around its center
+     */
+    public final double angularMomentum;
+    /** Average distance to the nearest circle within perception, 0 if none had one */
+    public final double nearestDistance;
+    /** Groups of neighboring occupied grid cells, -1 when the tick used no grid (k nearest) */
+    public final int clusters;
+
+    /** Turns the running sums of one tick into order parameters */
+    public FlockOrder(long tick, double[] sums, int clusters) {
+        this.tick = tick;
+        this.clusters = clusters;
+        double n = sums[CIRCLES];
+        circles = (int) n;
+        if (n == 0) {
+            centerX = centerY = directionX = directionY = 0;
+            polarization = angularMomentum = nearestDistance = 0;
+            return;
+        }
+        centerX = sums[SUM_X] / n;
+        centerY = sums[SUM_Y] / n;
+        directionX = sums[SUM_DX] / n;
+        directionY = sums[SUM_DY] / n;
+        polarization = sums[MOVING] == 0 ? 0
+                : Math.hypot(sums[HEADING_X], sums[HEADING_Y]) / sums[MOVING];
+        // Sum of (r - center) x v, from sums kept without knowing the center
+        angularMomentum = (sums[CROSS] - (centerX * sums[SUM_DY] - centerY * sums[SUM_DX])) / n;
+        nearestDistance = sums[WITH_NEIGHBOR] == 0 ? 0 : sums[NEAREST] / sums[WITH_NEIGHBOR];
+    }
+
+    /**
+     * Counts groups of occupied cells that touch (including diagonally),
+     * with union-find over the cells. parent must hold at least one entry
+     * per cell.
+     */
+    public static int countClusters(SpatialGrid grid, int[] parent) {
+        int columns = grid.getColumns();
+        int rows = grid.getRows();
+        int clusters = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                int cell = row * columns + col;
+                if (empty(grid, col, row)) {
+                    continue;
+                }
+                parent[cell] = cell;
+                clusters++;
+                // Join with the occupied cells already seen: left, and the three above
+                if (col > 0 && !empty(grid, col - 1, row)) {
+                    clusters -= union(parent, cell, cell - 1);
+                }
+                if (row > 0) {
+                    for (int c = Math.max(col - 1, 0); c <= Math.min(col + 1, columns - 1); c++) {
+                        if (!empty(grid, c, row - 1)) {
+                            clusters -= union(parent, cell, cell - columns + (c - col));
+                        }
+                    }
+                }
+            }
+        }
+        return clusters;
+    }
+
+    private static boolean empty(SpatialGrid grid, int col, int row) {
+        return grid.cellStart(col, row) == grid.cellEnd(col, row);
+    }
+
+    /** Joins the groups of a and b, returns 1 if they were separate */
+    private static int union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra == rb) {
+            return 0;
+        }
+        parent[Math.max(ra, rb)] = Math.min(ra, rb);
+        return 1;
+    }
+
+    private static int find(int[] parent, int a) {
+        while (parent[a] != a) {
+            // Path halving
+            parent[a] = parent[parent[a]];
+            a = parent[a];
+        }
+        return a;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("center (%.0f, %.0f)  polarization %.3f  angular momentum %.1f\n"
+                + "nearest %.1f px  clusters %d", centerX, centerY, polarization,
+                angularMomentum, nearestDistance, clusters);
+    }
+}
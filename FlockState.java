@@ -0,0 +1,318 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Headless state of the whole flock, stored as one primitive array per
+ * component instead of one object per circle.
+ *
+ * Circle i is x[i], y[i], dx[i], dy[i], color[i] and visible[i]. Only the
+ * first count slots take part in the simulation. The arrays grow as circles
+ * are added, so the population is only limited by memory. Arrays are public for fast
+ * access from the step kernel, in the same spirit as Point. As FlockColumns
+ * it reads the current arrays and writes the next ones.
+ */
+public class FlockState implements FlockColumns {
+
+    /** Location of each circle */
+    public int[] x;
+    public int[] y;
+    /** Delta of location at each timestep */
+    public int[] dx;
+    public int[] dy;
+    /**
+     * Second set of locations and deltas for double-buffered ticks. The step
+     * reads x/y/dx/dy and writes these, then swap() trades the references.
+     * Allocated the first time they are needed.
+     */
+    public int[] nextX;
+    public int[] nextY;
+    public int[] nextDx;
+    public int[] nextDy;
+
+    /** Color of each circle as 0xRRGGBB */
+    public int[] color;
+    /** Drawn and simulated when visible */
+    public boolean[] visible;
+
+    /** Number of slots in use */
+    public int count = 0;
+
+    /** Bumped whenever circles are added, removed or reset, so caches know to start over */
+    public int changes = 0;
+
+    /** Fixed size of every circle */
+    public final int radius;
+    /** New circles start with each delta in -startSpeed .. startSpeed - 1 */
+    public final int startSpeed;
+
+    /** x and y bounds to keep circles in the play area */
+    public final int xMin;
+    public final int xMax;
+    public final int yMin;
+    public final int yMax;
+
+    /**
+     * Circles have many random components. Each randomize call gets its own
+     * stream, keyed by the seed, the epoch and the slot, so a seed gives the
+     * same flock no matter which thread or order circles are made in.
+     */
+    private long seed = new Random().nextLong();
+    /** Bumped whenever circles are randomized, so later circles get new streams */
+    private long epoch = 0;
+    /** Where randomize puts the circles it draws: this flock's arrays */
+    private final CircleSink slots = (i, px, py, pdx, pdy, rgb) -> {
+        x[i] = px;
+        y[i] = py;
+        dx[i] = pdx;
+        dy[i] = pdy;
+        color[i] = rgb;
+    };
+
+    /**
+     * Constructor specifies how many circles fit and the play area bounds,
+     * given as {x, y, w, h}. Slots start empty; setCount or spawn fills them.
+     */
+    public FlockState(int capacity, int radius, int[] bounds) {
+        this(capacity, radius, bounds, WorldConfig.DEFAULT.startSpeed);
+    }
+
+    /** Constructor specifies how many circles fit and the world they live in */
+    public FlockState(int capacity, WorldConfig world) {
+        this(capacity, world.radius, world.bounds(), world.startSpeed);
+    }
+
+    private FlockState(int capacity, int radius, int[] bounds, int startSpeed) {
+        this.radius = radius;
+        this.startSpeed = startSpeed;
+        xMin = bounds[0];
+        xMax = bounds[2] + bounds[0] - radius;
+        yMin = bounds[1];
+        yMax = bounds[3] + bounds[1] - radius;
+
+        x = new int[capacity];
+        y = new int[capacity];
+        dx = new int[capacity];
+        dy = new int[capacity];
+        color = new int[capacity];
+        visible = new boolean[capacity];
+    }
+
+    /** Number of circles the arrays can hold */
+    public int capacity() {
+        return x.length;
+    }
+
+    /**
+     * Makes room for at least n circles. Capacity at least doubles each time,
+     * so adding circles one by one costs amortized constant time.
+     */
+    public void ensureCapacity(int n) {
+        if (n <= x.length) {
+            return;
+        }
+        int size = Math.max(n, Math.max(16, x.length * 2));
+        x = Arrays.copyOf(x, size);
+        y = Arrays.copyOf(y, size);
+        dx = Arrays.copyOf(dx, size);
+        dy = Arrays.copyOf(dy, size);
+        color = Arrays.copyOf(color, size);
+        visible = Arrays.copyOf(visible, size);
+        // Only hold values during a tick, reallocated on the next buffered one
+        nextX = nextY = nextDx = nextDy = null;
+    }
+
+    /** Adds one random visible circle at the end and returns its slot */
+    public int spawn() {
+        ensureCapacity(count + 1);
+        changes++;
+        epoch++;
+        int i = count++;
+        randomize(i);
+        visible[i] = true;
+        return i;
+    }
+
+    /** Adds one visible circle with the given values and returns its slot */
+    public int spawn(int px, int py, int pdx, int pdy, int rgb) {
+        ensureCapacity(count + 1);
+        changes++;
+        int i = count++;
+        x[i] = px;
+        y[i] = py;
+        dx[i] = pdx;
+        dy[i] = pdy;
+        color[i] = rgb;
+        visible[i] = true;
+        return i;
+    }
+
+    /** Removes circle i by moving the last circle into its slot */
+    public void despawn(int i) {
+        changes++;
+        int last = --count;
+        x[i] = x[last];
+        y[i] = y[last];
+        dx[i] = dx[last];
+        dy[i] = dy[last];
+        color[i] = color[last];
+        visible[i] = visible[last];
+        visible[last] = false;
+    }
+
+    /** Makes sure the second set of arrays exists */
+    public void ensureNextBuffers() {
+        if (nextX == null || nextX.length != x.length) {
+            nextX = new int[x.length];
+            nextY = new int[x.length];
+            nextDx = new int[x.length];
+            nextDy = new int[x.length];
+        }
+    }
+
+    /** Makes the next tick current, no values are copied */
+    public void swap() {
+        int[] t = x;
+        x = nextX;
+        nextX = t;
+        t = y;
+        y = nextY;
+        nextY = t;
+        t = dx;
+        dx = nextDx;
+        nextDx = t;
+        t = dy;
+        dy = nextDy;
+        nextDy = t;
+    }
+
+    @Override
+    public int radius() {
+        return radius;
+    }
+
+    @Override
+    public int xMin() {
+        return xMin;
+    }
+
+    @Override
+    public int yMin() {
+        return yMin;
+    }
+
+    @Override
+    public int xMax() {
+        return xMax;
+    }
+
+    @Override
+    public int yMax() {
+        return yMax;
+    }
+
+    @Override
+    public int x(int i) {
+        return x[i];
+    }
+
+    @Override
+    public int y(int i) {
+        return y[i];
+    }
+
+    @Override
+    public int dx(int i) {
+        return dx[i];
+    }
+
+    @Override
+    public int dy(int i) {
+        return dy[i];
+    }
+
+    @Override
+    public boolean visible(int i) {
+        return visible[i];
+    }
+
+    /** Writes the next buffers, see ensureNextBuffers */
+    @Override
+    public void setNext(int i, int px, int py, int pdx, int pdy) {
+        nextX[i] = px;
+        nextY[i] = py;
+        nextDx[i] = pdx;
+        nextDy[i] = pdy;
+    }
+
+    /** Randomizes the first n circles and makes them visible, hiding the rest */
+    public void setCount(int n) {
+        ensureCapacity(n);
+        count = n;
+        changes++;
+        epoch++;
+        for (int i = 0; i < n; i++) {
+            randomize(i);
+            visible[i] = true;
+        }
+        for (int i = n; i < capacity(); i++) {
+            visible[i] = false;
+        }
+    }
+
+    /** Seed for every random circle made from now on */
+    public void setSeed(long v) {seed = v;}
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /** Number of times circles were randomized, the rest of the random state */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /** Puts the random state back to what getSeed and getEpoch returned */
+    public void setRandomState(long seed, long epoch) {
+        this.seed = seed;
+        this.epoch = epoch;
+    }
+
+    /** Randomly assigns location, direction and color of circle i */
+    public void randomize(int i) {
+        randomize(seed, epoch, i, xMin, yMin, xMax, yMax, startSpeed, slots);
+    }
+
+    /** Receives circle i's location, direction and color as randomize draws them */
+    interface CircleSink {
+        void put(int i, int x, int y, int dx, int dy, int color);
+    }
+
+    /**
+     * Draws circle i of a flock with this seed and epoch, in the given bounds
+     * and starting speed, into sink. The off-heap flock lays out its circles
+     * with it too, so a seed gives the same flock on and off the heap.
+     */
+    static void randomize(long seed, long epoch, int i, int xMin, int yMin, int xMax, int yMax,
+            int startSpeed, CircleSink sink) {
+        SplittableRandom random = stream(seed, epoch, i);
+        // place at random location
+        int px = random.nextInt(xMax - xMin) + xMin;
+        int py = random.nextInt(yMax - yMin) + yMin;
+        // set in a random direction
+        int pdx = random.nextInt(2 * startSpeed) - startSpeed;
+        int pdy = random.nextInt(2 * startSpeed) - startSpeed;
+        // color randomly
+        int rgb = (random.nextInt(255) << 16) | (random.nextInt(255) << 8) | random.nextInt(255);
+        sink.put(i, px, py, pdx, pdy, rgb);
+    }
+
+    /** Independent random stream for one circle, the same for the same seed, epoch and slot */
+    private static SplittableRandom stream(long seed, long epoch, int i) {
+        long key = seed ^ (epoch << 32 | (i & 0xFFFFFFFFL));
+        // SplitMix64 finalizer, so nearby keys give unrelated streams
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return new SplittableRandom(key ^ (key >>> 31));
+    }
+}
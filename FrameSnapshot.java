@@ -0,0 +1,110 @@
+/**
+ * Copy of what the flock looked like at one tick, for drawing.
+ *
+ * Filled by the model thread and then handed to the renderer through a
+ * SnapshotExchange. Once handed over it is never written again until the
+ * renderer has let go of it, so readers can treat it as immutable.
+ *
+ * A frame is taken for a RenderView. When the view holds more circles
+ * than the level of detail threshold, only their DensityMap is filled and
+ * the frame is aggregated: drawing it then costs the same however big
+ * the flock is. Only circles inside the view count, so zooming in on part
+ * of a big flock draws its circles one by one again; zoomed in, only the
+ * ones inside the view are copied.
+ */
+public class FrameSnapshot {
+
+    /** Location, color and visibility of each slot, like FlockState */
+    public int[] x = new int[0];
+    public int[] y = new int[0];
+    public int[] color = new int[0];
+    public boolean[] visible = new boolean[0];
+
+    /** Number of slots copied */
+    public int count = 0;
+
+    /** Tick the copy was taken at */
+    public long tick = 0;
+
+    /** View the frame was taken for, null until the first copy */
+    public RenderView view = null;
+
+    /** Set when the view held too many circles to copy, density then holds them instead */
+    public boolean aggregated = false;
+    /** Circles of the view binned for the heatmap, filled only above the threshold */
+    public final DensityMap density = new DensityMap();
+
+    /** Copies the first count slots of the state, growing the arrays if needed */
+    public void copyFrom(FlockState s, long atTick) {
+        view = new RenderView(s.xMin, s.yMin, 1);
+        aggregated = false;
+        copyAll(s);
+        tick = atTick;
+    }
+
+    /**
+     * Takes the frame for the given view: the circles inside it, or their
+     * density map if there are more than lodThreshold of them
+     */
+    public void copyFrom(FlockState s, long atTick, RenderView forView, int lodThreshold) {
+        view = forView;
+        tick = atTick;
+        int width = s.xMax - s.xMin + s.radius;
+        int height = s.yMax - s.yMin + s.radius;
+        if (s.count > lodThreshold) {
+            density.build(s, forView, width, height);
+            if (density.getTotal() > lodThreshold) {
+                aggregated = true;
+                count = 0;
+                return;
+            }
+        }
+        aggregated = false;
+        if (forView.zoom == 1) {
+            copyAll(s);
+        } else {
+            copyInside(s, forView.left, forView.top, forView.worldWidth(width), forView.worldWidth(height));
+        }
+    }
+
+    private void ensureSize(int n) {
+        if (x.length < n) {
+            int size = Math.max(n, x.length * 2);
+            x = new int[size];
+            y = new int[size];
+            color = new int[size];
+            visible = new boolean[size];
+        }
+    }
+
+    private void copyAll(FlockState s) {
+        int n = s.count;
+        ensureSize(n);
+        System.arraycopy(s.x, 0, x, 0, n);
+        System.arraycopy(s.y, 0, y, 0, n);
+        System.arraycopy(s.color, 0, color, 0, n);
+        System.arraycopy(s.visible, 0, visible, 0, n);
+        count = n;
+    }
+
+    /** Copies the visible circles overlapping the w x h world rectangle at (left, top), packed */
+    private void copyInside(FlockState s, int left, int top, int w, int h) {
+        int n = s.count;
+        int r = s.radius;
+        ensureSize(n);
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            int px = s.x[i];
+            int py = s.y[i];
+            if (!s.visible[i] || px + r <= left || py + r <= top || px >= left + w || py >= top + h) {
+                continue;
+            }
+            x[used] = px;
+            y[used] = py;
+            color[used] = s.color[i];
+            visible[used] = true;
+            used++;
+        }
+        count = used;
+    }
+}
@@ -0,0 +1,294 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Two-dimensional KD-tree over the visible circles, for k-nearest-neighbor
+ * queries.
+ *
+ * The tree is implicit: after building, positions lo .. hi of the tree
+ * arrays hold one subtree, its root at mid = (lo + hi) / 2, the left
+ * subtree before it and the right one after. Each node splits on the axis
+ * where its circles are spread out the most, so the tree adapts to very
+ * uneven density where a uniform grid would pile thousands of circles into
+ * one cell. Locations are copied in tree order so queries read memory that
+ * is close together. Rebuilt from scratch each tick; the two halves of
+ * large subtrees are built in parallel when given a pool.
+ */
+public class KdTree {
+
+    /** Subtrees smaller than this are built on the current thread */
+    private static final int PARALLEL_GRAIN = 4096;
+    /** Subtrees this small are scanned instead of descended */
+    private static final int LEAF = 16;
+
+    /** Circle index, location and split axis (0 = x, 1 = y) of each tree position */
+    private int[] index = new int[0];
+    private int[] tx = new int[0];
+    private int[] ty = new int[0];
+    private byte[] axis = new byte[0];
+    /** Circles in the tree */
+    private int size = 0;
+
+    /**
+     * Results of one query: the k nearest as a max-heap on distance, so the
+     * farthest kept is always at 0. Each thread keeps its own and reuses it,
+     * so queries do not allocate.
+     */
+    public static class Neighbors {
+        /** Circle index and squared distance of each result, count of them valid */
+        public final int[] index;
+        public final long[] distanceSq;
+        public int count;
+
+        /** Subtrees still to visit and the least squared distance any of their circles can be */
+        private int[] stackLo = new int[64];
+        private int[] stackHi = new int[64];
+        private long[] stackBound = new long[64];
+
+        public Neighbors(int k) {
+            index = new int[k];
+            distanceSq = new long[k];
+        }
+
+        public int capacity() {
+            return index.length;
+        }
+    }
+
+    /** Rebuilds the tree over the visible circles, using the pool if there is one */
+    public void build(FlockState s, ForkJoinPool pool) {
+        int n = s.count;
+        if (index.length < n) {
+            int capacity = Math.max(n, index.length * 2);
+            index = new int[capacity];
+            tx = new int[capacity];
+            ty = new int[capacity];
+            axis = new byte[capacity];
+        }
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            if (s.visible[i]) {
+                index[used] = i;
+                tx[used] = s.x[i];
+                ty[used] = s.y[i];
+                used++;
+            }
+        }
+        size = used;
+        if (pool != null && size > PARALLEL_GRAIN) {
+            pool.invoke(new BuildTask(0, size));
+        } else {
+            build(0, size);
+        }
+    }
+
+    /** Circles in the tree */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the (up to) k nearest circles to (qx, qy), leaving out circle
+     * self, into out. k is out.capacity(). Does not allocate.
+     */
+    public void nearest(int qx, int qy, int self, Neighbors out) {
+        out.count = 0;
+        int k = out.capacity();
+        if (k == 0) {
+            return;
+        }
+        int[] stackLo = out.stackLo;
+        int[] stackHi = out.stackHi;
+        long[] stackBound = out.stackBound;
+        int top = 0;
+        int lo = 0;
+        int hi = size;
+        while (true) {
+            // Walk down the nearer side, leaving the farther one on the stack
+            while (hi - lo > LEAF) {
+                int mid = (lo + hi) >>> 1;
+                consider(mid, qx, qy, self, out);
+                long offset = axis[mid] == 0 ? qx - tx[mid] : qy - ty[mid];
+                if (top == stackLo.length) {
+                    // Only happens for trees far deeper than a balanced one
+                    out.stackLo = stackLo = Arrays.copyOf(stackLo, top * 2);
+                    out.stackHi = stackHi = Arrays.copyOf(stackHi, top * 2);
+                    out.stackBound = stackBound = Arrays.copyOf(stackBound, top * 2);
+                }
+                stackBound[top] = offset * offset;
+                if (offset < 0) {
+                    stackLo[top] = mid + 1;
+                    stackHi[top++] = hi;
+                    hi = mid;
+                } else {
+                    stackLo[top] = lo;
+                    stackHi[top++] = mid;
+                    lo = mid + 1;
+                }
+            }
+            for (int p = lo; p < hi; p++) {
+                consider(p, qx, qy, self, out);
+            }
+            // Next subtree that could still hold something nearer
+            do {
+                if (top == 0) {
+                    return;
+                }
+                top--;
+            } while (out.count == k && stackBound[top] >= out.distanceSq[0]);
+            lo = stackLo[top];
+            hi = stackHi[top];
+        }
+    }
+
+    /** Keeps tree position p if it is among the k nearest so far */
+    private void consider(int p, int qx, int qy, int self, Neighbors out) {
+        int j = index[p];
+        if (j == self) {
+            return;
+        }
+        long ox = tx[p] - qx;
+        long oy = ty[p] - qy;
+        long d = ox * ox + oy * oy;
+        long[] dist = out.distanceSq;
+        int[] idx = out.index;
+        if (out.count < out.capacity()) {
+            // Sift up
+            int c = out.count++;
+            while (c > 0) {
+                int parent = (c - 1) >>> 1;
+                if (dist[parent] >= d) {
+                    break;
+                }
+                dist[c] = dist[parent];
+                idx[c] = idx[parent];
+                c = parent;
+            }
+            dist[c] = d;
+            idx[c] = j;
+        } else if (d < dist[0]) {
+            // Replace the farthest and sift down
+            int n = out.count;
+            int c = 0;
+            while (true) {
+                int child = 2 * c + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && dist[child + 1] > dist[child]) {
+                    child++;
+                }
+                if (dist[child] <= d) {
+                    break;
+                }
+                dist[c] = dist[child];
+                idx[c] = idx[child];
+                c = child;
+            }
+            dist[c] = d;
+            idx[c] = j;
+        }
+    }
+
+    /** Builds the subtree at lo .. hi on this thread */
+    private void build(int lo, int hi) {
+        while (hi - lo > LEAF) {
+            int mid = split(lo, hi);
+            build(lo, mid);
+            lo = mid + 1;
+        }
+    }
+
+    /** Picks the axis and puts the median at mid, smaller before and larger after; returns mid */
+    private int split(int lo, int hi) {
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int p = lo; p < hi; p++) {
+            minX = Math.min(minX, tx[p]);
+            maxX = Math.max(maxX, tx[p]);
+            minY = Math.min(minY, ty[p]);
+            maxY = Math.max(maxY, ty[p]);
+        }
+        int[] keys = (long) maxX - minX >= (long) maxY - minY ? tx : ty;
+        int mid = (lo + hi) >>> 1;
+        select(keys, lo, hi - 1, mid);
+        axis[mid] = (byte) (keys == tx ? 0 : 1);
+        return mid;
+    }
+
+    /** Quickselect: reorders lo .. hi (inclusive) so position k holds the k-th smallest key */
+    private void select(int[] keys, int lo, int hi, int k) {
+        while (hi > lo) {
+            // Median of three as the pivot
+            int m = (lo + hi) >>> 1;
+            if (keys[m] < keys[lo]) {
+                swap(m, lo);
+            }
+            if (keys[hi] < keys[lo]) {
+                swap(hi, lo);
+            }
+            if (keys[hi] < keys[m]) {
+                swap(hi, m);
+            }
+            int pivot = keys[m];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        int t = index[a];
+        index[a] = index[b];
+        index[b] = t;
+        t = tx[a];
+        tx[a] = tx[b];
+        tx[b] = t;
+        t = ty[a];
+        ty[a] = ty[b];
+        ty[b] = t;
+    }
+
+    /** Builds a subtree, handing the halves of large ones to other threads */
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+
+        BuildTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= PARALLEL_GRAIN) {
+                build(lo, hi);
+            } else {
+                int mid = split(lo, hi);
+                invokeAll(new BuildTask(lo, mid), new BuildTask(mid + 1, hi));
+            }
+        }
+    }
+}
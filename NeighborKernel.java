@@ -0,0 +1,58 @@
+/**
+ * Sums the flocking terms of one circle over a run of candidate neighbors.
+ *
+ * Candidates are a contiguous slice of the grid's sorted copies of location
+ * and direction, so an implementation can walk them with plain or SIMD loads.
+ * Results are added to sums, indexed by the constants below, except
+ * NEAREST_SQ which keeps the smallest value (start it at Long.MAX_VALUE).
+ * Cohesion is summed relative to the circle (xj - xi) to keep the numbers small.
+ */
+public interface NeighborKernel {
+
+    /** Sum of -(xj - xi) over touching neighbors */
+    int SEP_X = 0;
+    int SEP_Y = 1;
+    /** Sum of the neighbors' directions */
+    int ALIGN_X = 2;
+    int ALIGN_Y = 3;
+    /** Sum of (xj - xi) over neighbors */
+    int COH_X = 4;
+    int COH_Y = 5;
+    /** Neighbors within perception distance */
+    int IN_RANGE = 6;
+    /** Neighbors close enough to touch */
+    int TOUCHING = 7;
+    /** Smallest squared distance to a neighbor within perception */
+    int NEAREST_SQ = 8;
+    /** Length of the sums array */
+    int SUMS = 9;
+
+    /**
+     * Adds the terms for the circle at (xi, yi), sitting at position self,
+     * over positions from .. to (exclusive) of the sorted arrays.
+     */
+    void accumulate(int[] x, int[] y, int[] dx, int[] dy, int from, int to, int self,
+            int xi, int yi, int perceptionSq, int touchingSq, long[] sums);
+
+    /** Short name for reports */
+    String name();
+
+    /**
+     * The fastest kernel this JVM can run: the SIMD one when the
+     * jdk.incubator.vector module is loaded and VectorNeighborKernel was
+     * compiled in, the scalar one otherwise. -Dflock.kernel=scalar forces the
+     * scalar one.
+     */
+    static NeighborKernel select() {
+        boolean vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        if (vectorModule && !"scalar".equals(System.getProperty("flock.kernel"))) {
+            try {
+                return (NeighborKernel) Class.forName("VectorNeighborKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Not compiled in, fall back below
+            }
+        }
+        return new ScalarNeighborKernel();
+    }
+}
@@ -0,0 +1,378 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Static obstacles (circles and polygons) turned into a signed distance
+ * field over the play area, so steering around them costs one grid lookup
+ * per circle however many obstacles there are.
+ *
+ * At load time every cell is marked inside or outside an obstacle, then
+ * two exact Euclidean distance transforms (Felzenszwalb and Huttenlocher)
+ * give each cell its distance to the nearest obstacle, negative inside one.
+ * The gradient (pointing away from obstacles) is taken by central
+ * differences. Building costs about the same for 1 obstacle or 10k; only
+ * marking the cells grows with the obstacles' area. Immutable once built.
+ *
+ * File format, one obstacle per line, window coordinates like the play
+ * area, # starts a comment:
+ *   circle cx cy r
+ *   polygon x1 y1 x2 y2 x3 y3 ...
+ */
+public class ObstacleField {
+
+    /** Cell size (pixels) used by the GUI */
+    public static final int CELL_SIZE = 4;
+    /** Distance used where there are no obstacles at all */
+    private static final float FAR = 1e9f;
+
+    /** Size of a cell in pixels, and the grid's top left corner and size */
+    private final int cellSize;
+    private final int originX;
+    private final int originY;
+    private final int columns;
+    private final int rows;
+
+    /** Signed distance (pixels) to the nearest obstacle edge per cell, negative inside */
+    private final float[] distance;
+    /** Unit gradient of the distance per cell, away from the nearest obstacle */
+    private final float[] gradX;
+    private final float[] gradY;
+
+    /** Obstacles the field was built from */
+    private final int obstacleCount;
+
+    /** One obstacle as read from the file */
+    public static class Shape {
+        /** Circle center and radius, or polygon corners in xs/ys */
+        final double cx;
+        final double cy;
+        final double r;
+        final double[] xs;
+        final double[] ys;
+
+        /** A circle */
+        public Shape(double cx, double cy, double r) {
+            this.cx = cx;
+            this.cy = cy;
+            this.r = r;
+            xs = null;
+            ys = null;
+        }
+
+        /** A polygon, corners in order */
+        public Shape(double[] xs, double[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+            cx = cy = r = 0;
+        }
+
+        boolean isCircle() {
+            return xs == null;
+        }
+    }
+
+    /**
+     * Builds the field for the shapes over the play area {x, y, w, h} with
+     * cells of the given size in pixels.
+     */
+    public ObstacleField(List<Shape> shapes, int[] bounds, int cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+        originX = bounds[0];
+        originY = bounds[1];
+        columns = bounds[2] / this.cellSize + 1;
+        rows = bounds[3] / this.cellSize + 1;
+        obstacleCount = shapes.size();
+        int cells = columns * rows;
+
+        boolean[] inside = new boolean[cells];
+        for (Shape shape : shapes) {
+            mark(shape, inside);
+        }
+
+        // Squared distance (in cells) to the nearest inside cell, and to the nearest outside cell
+        float[] toInside = new float[cells];
+        float[] toOutside = new float[cells];
+        boolean any = false;
+        for (int c = 0; c < cells; c++) {
+            any |= inside[c];
+            toInside[c] = inside[c] ? 0 : Float.POSITIVE_INFINITY;
+            toOutside[c] = inside[c] ? Float.POSITIVE_INFINITY : 0;
+        }
+        distance = new float[cells];
+        gradX = new float[cells];
+        gradY = new float[cells];
+        if (!any) {
+            Arrays.fill(distance, FAR);
+            return;
+        }
+        transform(toInside);
+        transform(toOutside);
+        // Cell centers are half a cell from the edge between them
+        float half = this.cellSize / 2f;
+        for (int c = 0; c < cells; c++) {
+            distance[c] = inside[c]
+                    ? -((float) Math.sqrt(toOutside[c]) * this.cellSize - half)
+                    : (float) Math.sqrt(toInside[c]) * this.cellSize - half;
+        }
+        gradients();
+    }
+
+    /** Reads shapes from a file (see the class comment) and builds the field */
+    public static ObstacleField load(Path file, int[] bounds, int cellSize) throws IOException {
+        return new ObstacleField(read(file), bounds, cellSize);
+    }
+
+    /** Reads shapes from a file, see the class comment for the format */
+    public static List<Shape> read(Path file) throws IOException {
+        List<Shape> shapes = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] f = line.split("\\s+");
+                try {
+                    if (f[0].equals("circle") && f.length == 4) {
+                        shapes.add(new Shape(Double.parseDouble(f[1]), Double.parseDouble(f[2]),
+                                Double.parseDouble(f[3])));
+                    } else if (f[0].equals("polygon") && f.length >= 7 && f.length % 2 == 1) {
+                        int corners = (f.length - 1) / 2;
+                        double[] xs = new double[corners];
+                        double[] ys = new double[corners];
+                        for (int k = 0; k < corners; k++) {
+                            xs[k] = Double.parseDouble(f[1 + 2 * k]);
+                            ys[k] = Double.parseDouble(f[2 + 2 * k]);
+                        }
+                        shapes.add(new Shape(xs, ys));
+                    } else {
+                        throw new IOException(file + ":" + number + ": expected 'circle cx cy r' or 'polygon x1 y1 x2 y2 x3 y3 ...'");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + number + ": " + e.getMessage());
+                }
+            }
+        }
+        return shapes;
+    }
+
+    /** Signed distance (pixels) from the point to the nearest obstacle, negative inside one */
+    public float distanceAt(int px, int py) {
+        return distance[cell(px, py)];
+    }
+
+    /** Direction away from the nearest obstacle at the point, as a unit vector */
+    public float gradientXAt(int px, int py) {
+        return gradX[cell(px, py)];
+    }
+
+    public float gradientYAt(int px, int py) {
+        return gradY[cell(px, py)];
+    }
+
+    /** Index of the cell holding the point, clamped to the grid */
+    public int cell(int px, int py) {
+        int col = Math.max(0, Math.min(columns - 1, (px - originX) / cellSize));
+        int row = Math.max(0, Math.min(rows - 1, (py - originY) / cellSize));
+        return row * columns + col;
+    }
+
+    /** Distance of cell c, see cell() */
+    public float distance(int c) {
+        return distance[c];
+    }
+
+    public float gradientX(int c) {
+        return gradX[c];
+    }
+
+    public float gradientY(int c) {
+        return gradY[c];
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginY() {
+        return originY;
+    }
+
+    /** Obstacles the field was built from */
+    public int getObstacleCount() {
+        return obstacleCount;
+    }
+
+    /** Marks the cells whose centers are inside the shape, only looking at its bounding box */
+    private void mark(Shape shape, boolean[] inside) {
+        double minX;
+        double maxX;
+        double minY;
+        double maxY;
+        if (shape.isCircle()) {
+            minX = shape.cx - shape.r;
+            maxX = shape.cx + shape.r;
+            minY = shape.cy - shape.r;
+            maxY = shape.cy + shape.r;
+        } else {
+            minX = maxX = shape.xs[0];
+            minY = maxY = shape.ys[0];
+            for (int k = 1; k < shape.xs.length; k++) {
+                minX = Math.min(minX, shape.xs[k]);
+                maxX = Math.max(maxX, shape.xs[k]);
+                minY = Math.min(minY, shape.ys[k]);
+                maxY = Math.max(maxY, shape.ys[k]);
+            }
+        }
+        int firstCol = Math.max(0, (int) Math.floor((minX - originX) / cellSize));
+        int lastCol = Math.min(columns - 1, (int) Math.ceil((maxX - originX) / cellSize));
+        int firstRow = Math.max(0, (int) Math.floor((minY - originY) / cellSize));
+        int lastRow = Math.min(rows - 1, (int) Math.ceil((maxY - originY) / cellSize));
+        double rSq = shape.r * shape.r;
+        for (int row = firstRow; row <= lastRow; row++) {
+            double py = originY + (row + 0.5) * cellSize;
+            for (int col = firstCol; col <= lastCol; col++) {
+                double px = originX + (col + 0.5) * cellSize;
+                boolean in;
+                if (shape.isCircle()) {
+                    double ox = px - shape.cx;
+                    double oy = py - shape.cy;
+                    in = ox * ox + oy * oy <= rSq;
+                } else {
+                    in = contains(shape.xs, shape.ys, px, py);
+                }
+                if (in) {
+                    inside[row * columns + col] = true;
+                }
+            }
+        }
+    }
+
+    /** Even-odd rule: a ray to the right crosses the edges an odd number of times */
+    private static boolean contains(double[] xs, double[] ys, double px, double py) {
+        boolean in = false;
+        for (int a = 0, b = xs.length - 1; a < xs.length; b = a++) {
+            if ((ys[a] > py) != (ys[b] > py)
+                    && px < (xs[b] - xs[a]) * (py - ys[a]) / (ys[b] - ys[a]) + xs[a]) {
+                in = !in;
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Turns 0 / infinity per cell into the squared distance (in cells) to the
+     * nearest 0, exactly: a 1D transform along every row, then every column.
+     */
+    private void transform(float[] grid) {
+        int longest = Math.max(columns, rows);
+        float[] line = new float[longest];
+        float[] out = new float[longest];
+        int[] v = new int[longest];
+        float[] z = new float[longest + 1];
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(grid, row * columns, line, 0, columns);
+            transform1d(line, columns, out, v, z);
+            System.arraycopy(out, 0, grid, row * columns, columns);
+        }
+        for (int col = 0; col < columns; col++) {
+            for (int row = 0; row < rows; row++) {
+                line[row] = grid[row * columns + col];
+            }
+            transform1d(line, rows, out, v, z);
+            for (int row = 0; row < rows; row++) {
+                grid[row * columns + col] = out[row];
+            }
+        }
+    }
+
+    /** Lower envelope of the parabolas (q - p)^2 + f[p], Felzenszwalb and Huttenlocher */
+    private static void transform1d(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = -1;
+        for (int q = 0; q < n; q++) {
+            if (f[q] == Float.POSITIVE_INFINITY) {
+                continue;
+            }
+            if (k < 0) {
+                k = 0;
+                v[0] = q;
+                z[0] = Float.NEGATIVE_INFINITY;
+                z[1] = Float.POSITIVE_INFINITY;
+                continue;
+            }
+            float s;
+            while (true) {
+                int p = v[k];
+                s = ((f[q] + q * q) - (f[p] + p * p)) / (2f * (q - p));
+                if (s > z[k] || k == 0) {
+                    break;
+                }
+                k--;
+            }
+            if (s <= z[k]) {
+                // Only possible at k == 0, the new parabola replaces the first
+                v[0] = q;
+                z[1] = Float.POSITIVE_INFINITY;
+                continue;
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Float.POSITIVE_INFINITY;
+        }
+        if (k < 0) {
+            Arrays.fill(d, 0, n, Float.POSITIVE_INFINITY);
+            return;
+        }
+        int j = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[j + 1] < q) {
+                j++;
+            }
+            float off = q - v[j];
+            d[q] = off * off + f[v[j]];
+        }
+    }
+
+    /** Central differences of the distance, normalized */
+    private void gradients() {
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                int c = row * columns + col;
+                float gx = distance[row * columns + Math.min(col + 1, columns - 1)]
+                        - distance[row * columns + Math.max(col - 1, 0)];
+                float gy = distance[Math.min(row + 1, rows - 1) * columns + col]
+                        - distance[Math.max(row - 1, 0) * columns + col];
+                float length = (float) Math.sqrt(gx * gx + gy * gy);
+                if (length > 0) {
+                    gradX[c] = gx / length;
+                    gradY[c] = gy / length;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+
+/**
+ * A flock kept outside the Java heap, for populations in the tens of
+ * millions.
+ *
+ * Locations, directions, colors and visibility live in one block of native
+ * memory, or in a file mapped into memory, and the tick reads and writes
+ * them there: the same double-buffered step and collision pass as
+ * FlockEngine, with the same results, but nothing per circle on the heap,
+ * so heap use and GC stay flat however many circles there are. A flock
+ * mapped to a file is its own snapshot: force() makes the file hold the
+ * current tick, and open() carries on from it.
+ *
+ * The implementation (incubator/SegmentFlock.java) uses the incubating
+ * Foreign Memory API of Java 17 and is only there when compiled and run
+ * with --add-modules jdk.incubator.foreign; see isAvailable() and the README.
+ * Runs on one thread, with the same FlockKernel code as the heap: the
+ * kernel's obstacles and quality knobs are honored, and its order sums are
+ * those of the last tick.
+ */
+public interface OffHeapFlock extends AutoCloseable {
+
+    /** Advances the flock by one tick with the rules and strengths of the kernel */
+    void tick(FlockKernel rules);
+
+    /** Number of circles */
+    int count();
+
+    /** Ticks run so far, kept with the circles (so in the file when mapped) */
+    long getTick();
+
+    /** Bytes of native or mapped memory holding the circles */
+    long byteSize();
+
+    /** Copies the circles and the random state into an on-heap flock, e.g. to draw them */
+    void copyTo(FlockState s);
+
+    /** Writes a mapped flock's changes to its file, nothing for one in native memory */
+    void force();
+
+    /** Writes the current tick to a new file that open() can read, without going through the heap */
+    void snapshot(Path file) throws IOException;
+
+    /** Frees the memory, or unmaps the file */
+    @Override
+    void close();
+
+    /** True when the jdk.incubator.foreign module is loaded and SegmentFlock was compiled in */
+    static boolean isAvailable() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent()) {
+            return false;
+        }
+        try {
+            Class.forName("SegmentFlock");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies an on-heap flock off the heap: into native memory when file is
+     * null, into a new file mapped into memory otherwise
+     */
+    static OffHeapFlock copyOf(FlockState s, Path file) throws IOException {
+        return (OffHeapFlock) call("copyOf", new Class<?>[] {FlockState.class, Path.class}, s, file);
+    }
+
+    /**
+     * n random circles made straight off the heap, the same ones a FlockState
+     * with this seed would get from setCount(n) (file as in copyOf)
+     */
+    static OffHeapFlock random(int n, WorldConfig world, long seed, Path file) throws IOException {
+        return (OffHeapFlock) call("random", new Class<?>[] {int.class, WorldConfig.class, long.class, Path.class},
+                n, world, seed, file);
+    }
+
+    /** Maps a file written by a mapped flock or by snapshot() and carries on from it */
+    static OffHeapFlock open(Path file) throws IOException {
+        return (OffHeapFlock) call("open", new Class<?>[] {Path.class}, file);
+    }
+
+    /** Calls a static factory of SegmentFlock, which may not be compiled in */
+    private static Object call(String name, Class<?>[] types, Object... args) throws IOException {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException(
+                    "Off-heap flocks need incubator/SegmentFlock.java and --add-modules jdk.incubator.foreign");
+        }
+        try {
+            return Class.forName("SegmentFlock").getMethod(name, types).invoke(null, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
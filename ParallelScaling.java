@@ -0,0 +1,55 @@
+/**
+ * Reports flock throughput for each thread count, from 1 up to the number of
+ * cores (doubling each time, plus the core count itself).
+ *
+ * Usage: java ParallelScaling [circles] [ticks] [maxThreads]
+ */
+public class ParallelScaling {
+
+    public static void main(String[] args) {
+        int circles = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("circles=" + circles + " ticks=" + ticks);
+        System.out.println("threads,ticks/s,circle-steps/s,speedup,efficiency");
+
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads = nextCount(threads, maxThreads)) {
+            double rate = run(circles, ticks, threads);
+            if (threads == 1) {
+                base = rate;
+            }
+            double speedup = rate / base;
+            System.out.printf("%d,%.1f,%.0f,%.2f,%.2f%n",
+                    threads, rate, rate * circles, speedup, speedup / threads);
+        }
+    }
+
+    /** Ticks per second for one thread count, after a warm up */
+    private static double run(int circles, int ticks, int threads) {
+        FlockState state = new FlockState(circles, WorldConfig.DEFAULT);
+        state.setCount(circles);
+        FlockEngine engine = new FlockEngine(state, WorldConfig.DEFAULT);
+        engine.setParallelism(threads);
+
+        for (int t = 0; t < ticks / 4 + 1; t++) {
+            engine.tick();
+        }
+        long start = System.nanoTime();
+        for (int t = 0; t < ticks; t++) {
+            engine.tick();
+        }
+        long elapsed = System.nanoTime() - start;
+        engine.shutdown();
+        return ticks / (elapsed / 1e9);
+    }
+
+    private static int nextCount(int threads, int maxThreads) {
+        if (threads == maxThreads) {
+            return maxThreads + 1;
+        }
+        return Math.min(threads * 2, maxThreads);
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs many headless simulations, one per parameter set and seed, and
+ * writes one summary row per run.
+ *
+ * Parameter sets are either a grid over cohesion, separation and alignment
+ * (0 to 100) or a random sample of them. Each run is its own FlockState and
+ * FlockEngine on one thread, seeded so it can be repeated. Runs go on
+ * virtual threads when the JVM has them (Java 21+), found by reflection so
+ * this still compiles on 17, and on a pool with one thread per core
+ * otherwise. Either way at most --threads runs (one per core by default)
+ * are simulating at once. Runs share nothing, so throughput grows with the
+ * cores.
+ *
+ * Usage: java ParameterSweep [--grid step | --random sets] [--seeds n]
+ *   [--circles n] [--ticks n] [--threads n] [--pool] [--out summary.csv]
+ *   --grid step   every combination of 0, step, 2*step .. 100 (default 25)
+ *   --random sets this many random combinations instead
+ *   --threads n   run at most n simulations at once (default one per core)
+ *   --pool        use a pool of --threads threads even if virtual threads are there
+ */
+public class ParameterSweep {
+
+    /** One parameter set and seed to run */
+    private static class Run {
+        final double cohesion;
+        final double separation;
+        final double alignment;
+        final long seed;
+
+        Run(double cohesion, double separation, double alignment, long seed) {
+            this.cohesion = cohesion;
+            this.separation = separation;
+            this.alignment = alignment;
+            this.seed = seed;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int step = 25;
+        int randomSets = 0;
+        int seeds = 4;
+        int circles = 200;
+        int ticks = 500;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean pool = false;
+        String out = "sweep.csv";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--grid": step = Integer.parseInt(args[++i]); break;
+                case "--random": randomSets = Integer.parseInt(args[++i]); break;
+                case "--seeds": seeds = Integer.parseInt(args[++i]); break;
+                case "--circles": circles = Integer.parseInt(args[++i]); break;
+                case "--ticks": ticks = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--pool": pool = true; break;
+                case "--out": out = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("--threads must be at least 1");
+        }
+
+        List<Run> runs = randomSets > 0 ? randomRuns(randomSets, seeds) : gridRuns(step, seeds);
+        ExecutorService executor = pool ? null : virtualThreads();
+        String kind = executor != null ? "virtual threads, " + threads + " at once" : threads + " pool threads";
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads);
+        }
+        System.out.println(runs.size() + " runs of " + circles + " circles for " + ticks + " ticks on " + kind);
+
+        final int n = circles;
+        final int t = ticks;
+        long start = System.nanoTime();
+        // Virtual threads are not bounded by the executor, so this keeps at
+        // most threads runs simulating at once
+        Semaphore running = new Semaphore(threads);
+        List<Future<String>> rows = new ArrayList<>();
+        for (Run run : runs) {
+            rows.add(executor.submit(() -> {
+                running.acquire();
+                try {
+                    return simulate(run, n, t);
+                } finally {
+                    running.release();
+                }
+            }));
+        }
+        try (PrintWriter writer = new PrintWriter(new FileWriter(out))) {
+            writer.println("cohesion,separation,alignment,seed,polarization,angularMomentum,"
+                    + "nearest,clusters,contacts/tick,speed,ms");
+            for (Future<String> row : rows) {
+                writer.println(row.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%.2f s, %.1f runs/s, %.0f circle-steps/s%n",
+                seconds, runs.size() / seconds, (double) runs.size() * circles * ticks / seconds);
+        System.out.println("Summary written to " + out);
+    }
+
+    /** Runs one simulation and returns its summary row */
+    private static String simulate(Run run, int circles, int ticks) {
+        long start = System.nanoTime();
+        FlockState state = new FlockState(circles, WorldConfig.DEFAULT);
+        state.setSeed(run.seed);
+        state.setCount(circles);
+        FlockEngine engine = new FlockEngine(state, WorldConfig.DEFAULT);
+        // Results should not depend on the order circles are stepped in
+        engine.setDoubleBuffered(true);
+        engine.getKernel().setCoStr(run.cohesion);
+        engine.getKernel().setSepStr(run.separation);
+        engine.getKernel().setAlignStr(run.alignment);
+        long contacts = 0;
+        for (int t = 0; t < ticks; t++) {
+            engine.tick();
+            contacts += engine.getContactCount();
+        }
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        FlockOrder order = engine.getOrder();
+        return String.format("%.1f,%.1f,%.1f,%d,%.4f,%.2f,%.2f,%d,%.2f,%.2f,%d", run.cohesion,
+                run.separation, run.alignment, run.seed, order.polarization, order.angularMomentum,
+                order.nearestDistance, order.clusters, (double) contacts / ticks, speed(state), ms);
+    }
+
+    /** Average distance moved per tick */
+    private static double speed(FlockState s) {
+        double total = 0;
+        int visible = 0;
+        for (int i = 0; i < s.count; i++) {
+            if (s.visible[i]) {
+                total += Math.hypot(s.dx[i], s.dy[i]);
+                visible++;
+            }
+        }
+        return visible == 0 ? 0 : total / visible;
+    }
+
+    /** Every combination of 0, step .. 100 for each strength, with seeds 1 .. seeds */
+    private static List<Run> gridRuns(int step, int seeds) {
+        List<Run> runs = new ArrayList<>();
+        step = Math.max(1, step);
+        for (int co = 0; co <= 100; co += step) {
+            for (int sep = 0; sep <= 100; sep += step) {
+                for (int align = 0; align <= 100; align += step) {
+                    for (int seed = 1; seed <= seeds; seed++) {
+                        runs.add(new Run(co, sep, align, seed));
+                    }
+                }
+            }
+        }
+        return runs;
+    }
+
+    /** Random strengths (the same sample every time), with seeds 1 .. seeds */
+    private static List<Run> randomRuns(int sets, int seeds) {
+        List<Run> runs = new ArrayList<>();
+        SplittableRandom random = new SplittableRandom(0);
+        for (int i = 0; i < sets; i++) {
+            double co = random.nextInt(101);
+            double sep = random.nextInt(101);
+            double align = random.nextInt(101);
+            for (int seed = 1; seed <= seeds; seed++) {
+                runs.add(new Run(co, sep, align, seed));
+            }
+        }
+        return runs;
+    }
+
+    /** Executor with a virtual thread per task, or null before Java 21 */
+    private static ExecutorService virtualThreads() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** JFR event for each quality level change made by the QualityGovernor */
+@Name("flock.Quality")
+@Label("Flock Quality")
+@Category("Flock")
+@Description("Quality level changed to hold the tick budget")
+@StackTrace(false)
+public class QualityEvent extends Event {
+
+    @Label("Tick")
+    long tick;
+
+    @Label("Level")
+    @Description("New quality level, 0 is full quality")
+    int level;
+
+    @Label("Previous Level")
+    int previousLevel;
+
+    @Label("Tick Time")
+    @Description("Mean time per tick over the window that led to the change")
+    @Timespan(Timespan.NANOSECONDS)
+    long tickTime;
+
+    @Label("Budget")
+    @Timespan(Timespan.NANOSECONDS)
+    long budget;
+
+    @Label("Neighbor Cap")
+    @Description("Most candidates a circle looks at, 0 for no cap")
+    int neighborCap;
+
+    @Label("Sample Stride")
+    int sampleStride;
+
+    @Label("Far Interval")
+    @Description("Ticks between steering updates of circles far from the view")
+    int farInterval;
+
+    @Label("LOD Divisor")
+    @Description("Heatmap threshold divided by this")
+    int lodDivisor;
+}
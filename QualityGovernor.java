@@ -0,0 +1,249 @@
+/**
+ * Holds the model thread to a time budget per tick by trading accuracy
+ * for speed, instead of letting the simulation fall behind.
+ *
+ * The time spent per tick (stepping, plus taking frames to draw) is
+ * averaged over windows of WINDOW ticks. A window over budget drops one
+ * quality level; CALM_WINDOWS windows in a row under LOW of the budget
+ * bring one back. If coming back puts it over budget again, it waits
+ * twice as long before the next try, so it settles instead of flapping.
+ * The budget is the period of the target tick rate unless set; with no
+ * target (as fast as possible) and no budget nothing changes.
+ *
+ * Each level turns the knobs a bit further, never past the accuracy bounds
+ * declared with the setters:
+ *  - neighbor cap: most candidates a circle looks at (its own row first)
+ *  - sample stride: only every n-th candidate goes into the averages
+ *  - far interval: circles outside the middle of the view steer every n-th tick
+ *  - LOD divisor: the heatmap threshold is divided by this
+ *
+ * Runs on the model thread; the level and the counts can be read from any
+ * thread. Every change is committed as a QualityEvent.
+ */
+public class QualityGovernor {
+
+    /** Knobs at each level, full quality first */
+    private static final int[] NEIGHBOR_CAP = {0, 0, 64, 64, 32, 32, 16, 16};
+    private static final int[] SAMPLE_STRIDE = {1, 1, 1, 2, 2, 2, 4, 4};
+    private static final int[] FAR_INTERVAL = {1, 1, 1, 1, 2, 2, 2, 4};
+    private static final int[] LOD_DIVISOR = {1, 2, 2, 2, 4, 4, 8, 8};
+
+    /** Ticks averaged before each decision */
+    private static final int WINDOW = 20;
+    /** Share of the budget a window must stay under to count as calm */
+    private static final double LOW = 0.6;
+    /** Calm windows in a row before a level is brought back, at first */
+    private static final int CALM_WINDOWS = 3;
+    /** Longest wait (in windows) before trying a better level again */
+    private static final int MAX_CALM_WINDOWS = 64;
+
+    /** Changes levels only while enabled, full quality otherwise */
+    private volatile boolean enabled = false;
+    /** Time allowed per tick (nanoseconds), 0 for the period of the target tick rate */
+    private volatile long budgetNanos = 0;
+
+    /** Accuracy bounds: fewest candidates a circle may be cut to (0 never caps) ... */
+    private volatile int minNeighborCap = 16;
+    /** ... sparsest sampling, ... */
+    private volatile int maxSampleStride = 4;
+    /** ... longest far circles may go without steering, ... */
+    private volatile int maxFarInterval = 4;
+    /** ... and most the heatmap threshold may be divided by */
+    private volatile int maxLodDivisor = 8;
+
+    /** Current level, 0 is full quality */
+    private volatile int level = 0;
+
+    /** Ticks and time (nanoseconds) in the current window */
+    private int windowTicks = 0;
+    private long windowNanos = 0;
+    /** Calm windows in a row, and how many are needed to bring a level back */
+    private int calm = 0;
+    private int calmNeeded = CALM_WINDOWS;
+    /** Set right after bringing a level back, until the next window shows whether it holds */
+    private boolean probing = false;
+
+    /** Times a level was dropped and brought back */
+    private volatile long drops = 0;
+    private volatile long restores = 0;
+    /** Mean time per tick of the last window */
+    private volatile long lastTickNanos = 0;
+
+    /** Start or stop adapting; stopping goes back to full quality on the next tick */
+    public void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Set the time allowed per tick (nanoseconds), 0 for the period of the target tick rate */
+    public void setBudgetNanos(long v) {budgetNanos = Math.max(0, v);}
+    /** Set the fewest candidates a circle may be cut to, 0 never caps */
+    public void setMinNeighborCap(int v) {minNeighborCap = Math.max(0, v);}
+    /** Set the sparsest sampling allowed (1 always sums every candidate) */
+    public void setMaxSampleStride(int v) {maxSampleStride = Math.max(1, v);}
+    /** Set the most ticks far circles may go without steering (1 always steers) */
+    public void setMaxFarInterval(int v) {maxFarInterval = Math.max(1, v);}
+    /** Set the most the heatmap threshold may be divided by (1 never lowers it) */
+    public void setMaxLodDivisor(int v) {maxLodDivisor = Math.max(1, v);}
+
+    /**
+     * Sets the kernel's knobs for the current level, with the focus in the
+     * middle of the view. Call on the model thread before each tick.
+     */
+    public void configure(FlockKernel kernel, RenderView view, WorldConfig world) {
+        int at = enabled ? level : 0;
+        kernel.setNeighborCap(neighborCap(at));
+        kernel.setSampleStride(sampleStride(at));
+        int zoom = view.zoom;
+        int x = view.left + world.width / (2 * zoom);
+        int y = view.top + world.height / (2 * zoom);
+        kernel.setFocus(x, y, Math.min(world.width, world.height) / (2 * zoom), farInterval(at));
+    }
+
+    /** Heatmap threshold to draw with at the current level */
+    public int lodThreshold(int threshold) {
+        return threshold / lodDivisor(enabled ? level : 0);
+    }
+
+    /**
+     * Adds the time one frame took to take, counted against the current
+     * window. Only for frames taken in a loop that also ticked, so frames
+     * drawn while paused or replaying do not count.
+     */
+    public void observeRender(long nanos) {
+        windowNanos += nanos;
+    }
+
+    /** Starts the window over, e.g. when ticking resumes after a pause or a replay */
+    public void resetWindow() {
+        windowTicks = 0;
+        windowNanos = 0;
+        calm = 0;
+    }
+
+    /**
+     * Adds the time one tick took, and changes the level at the end of a
+     * window if needed. Call on the model thread after each tick.
+     */
+    public void observeTick(long nanos, double targetRate, long tick) {
+        windowNanos += nanos;
+        windowTicks++;
+        if (windowTicks < WINDOW) {
+            return;
+        }
+        long mean = windowNanos / windowTicks;
+        windowTicks = 0;
+        windowNanos = 0;
+        lastTickNanos = mean;
+        if (!enabled) {
+            level = 0;
+            probing = false;
+            return;
+        }
+        long budget = budgetNanos > 0 ? budgetNanos : targetRate > 0 ? (long) (1e9 / targetRate) : 0;
+        if (budget == 0) {
+            return;
+        }
+        if (mean > budget) {
+            calm = 0;
+            if (probing) {
+                // The better level did not hold, wait longer before trying again
+                calmNeeded = Math.min(MAX_CALM_WINDOWS, calmNeeded * 2);
+            }
+            probing = false;
+            if (level < topLevel()) {
+                change(level + 1, mean, budget, tick);
+                drops++;
+            }
+        } else {
+            if (probing) {
+                calmNeeded = CALM_WINDOWS;
+                probing = false;
+            }
+            calm = mean < LOW * budget ? calm + 1 : 0;
+            if (calm >= calmNeeded && level > 0) {
+                calm = 0;
+                probing = true;
+                change(level - 1, mean, budget, tick);
+                restores++;
+            }
+        }
+    }
+
+    private void change(int next, long mean, long budget, long tick) {
+        QualityEvent event = new QualityEvent();
+        if (event.shouldCommit()) {
+            event.tick = tick;
+            event.level = next;
+            event.previousLevel = level;
+            event.tickTime = mean;
+            event.budget = budget;
+            event.neighborCap = neighborCap(next);
+            event.sampleStride = sampleStride(next);
+            event.farInterval = farInterval(next);
+            event.lodDivisor = lodDivisor(next);
+            event.commit();
+        }
+        level = next;
+    }
+
+    /** Highest level that still changes something within the bounds */
+    private int topLevel() {
+        int top = 0;
+        for (int l = 1; l < NEIGHBOR_CAP.length; l++) {
+            if (neighborCap(l) != neighborCap(l - 1) || sampleStride(l) != sampleStride(l - 1)
+                    || farInterval(l) != farInterval(l - 1) || lodDivisor(l) != lodDivisor(l - 1)) {
+                top = l;
+            }
+        }
+        return top;
+    }
+
+    private int neighborCap(int l) {
+        int min = minNeighborCap;
+        return NEIGHBOR_CAP[l] == 0 || min == 0 ? 0 : Math.max(min, NEIGHBOR_CAP[l]);
+    }
+
+    private int sampleStride(int l) {
+        return Math.min(maxSampleStride, SAMPLE_STRIDE[l]);
+    }
+
+    private int farInterval(int l) {
+        return Math.min(maxFarInterval, FAR_INTERVAL[l]);
+    }
+
+    private int lodDivisor(int l) {
+        return Math.min(maxLodDivisor, LOD_DIVISOR[l]);
+    }
+
+    /** Current quality level, 0 is full quality */
+    public int getLevel() {
+        return enabled ? level : 0;
+    }
+
+    /** Times a level was dropped to hold the budget */
+    public long getDrops() {
+        return drops;
+    }
+
+    /** Times a level was brought back */
+    public long getRestores() {
+        return restores;
+    }
+
+    /** Level, knobs and decisions, for the metrics overlay */
+    public String summary() {
+        if (!enabled) {
+            return "quality    governor off";
+        }
+        int at = level;
+        String cap = neighborCap(at) == 0 ? "all" : String.valueOf(neighborCap(at));
+        return String.format("quality    level %d/%d  neighbors %s  sample 1/%d  far 1/%d  lod /%d\n"
+                + "governor   tick us %d  drops %d  restores %d",
+                at, topLevel(), cap, sampleStride(at), farInterval(at), lodDivisor(at),
+                lastTickNanos / 1000, drops, restores);
+    }
+}
@@ -0,0 +1,22 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** JFR event for drawing one frame on the canvas. Its duration is the draw time. */
+@Name("flock.Render")
+@Label("Flock Render")
+@Category("Flock")
+@Description("One frame drawn by the canvas")
+@StackTrace(false)
+public class RenderEvent extends Event {
+
+    @Label("Tick")
+    @Description("Tick the frame was taken at")
+    long tick;
+
+    @Label("Circles")
+    int circles;
+}
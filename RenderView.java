@@ -0,0 +1,48 @@
+/**
+ * Part of the play area the canvas shows: the world point at its top left
+ * corner and a zoom factor (1 shows the whole play area). Immutable, so
+ * the Swing thread can hand a new one to the model thread in one write.
+ */
+public class RenderView {
+
+    /** Deepest zoom the mouse wheel goes to */
+    public static final int MAX_ZOOM = 32;
+
+    /** World point drawn at the top left corner of the canvas */
+    public final int left;
+    public final int top;
+    /** Screen pixels per world pixel */
+    public final int zoom;
+
+    public RenderView(int left, int top, int zoom) {
+        this.left = left;
+        this.top = top;
+        this.zoom = Math.max(1, zoom);
+    }
+
+    /** The whole play area {x, y, w, h} */
+    public static RenderView whole(int[] bounds) {
+        return new RenderView(bounds[0], bounds[1], 1);
+    }
+
+    /**
+     * Zoomed in (factor above 1) or out (below 1) around the screen point
+     * (px, py), which stays over the same world point, kept inside the play
+     * area {x, y, w, h}
+     */
+    public RenderView zoomedAt(int px, int py, double factor, int[] bounds) {
+        int next = (int) Math.max(1, Math.min(MAX_ZOOM, Math.round(zoom * factor)));
+        int worldX = left + px / zoom;
+        int worldY = top + py / zoom;
+        int nextLeft = worldX - px / next;
+        int nextTop = worldY - py / next;
+        nextLeft = Math.max(bounds[0], Math.min(bounds[0] + bounds[2] - bounds[2] / next, nextLeft));
+        nextTop = Math.max(bounds[1], Math.min(bounds[1] + bounds[3] - bounds[3] / next, nextTop));
+        return new RenderView(nextLeft, nextTop, next);
+    }
+
+    /** Width of the world shown on a canvas this many pixels wide */
+    public int worldWidth(int pixels) {
+        return (pixels + zoom - 1) / zoom;
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.Arrays;
+
+/**
+ * The last few samples of some measurement (e.g. tick time), for
+ * percentiles over a sliding window. Not thread safe: one thread adds
+ * and reads.
+ */
+public class RollingHistogram {
+
+    /** Samples in a ring, the oldest is overwritten first */
+    private final long[] samples;
+    /** Scratch copy sorted for percentiles */
+    private final long[] sorted;
+    /** Samples added so far */
+    private long added = 0;
+
+    /** Constructor specifies how many recent samples are kept */
+    public RollingHistogram(int window) {
+        samples = new long[window];
+        sorted = new long[window];
+    }
+
+    public void add(long value) {
+        samples[(int) (added % samples.length)] = value;
+        added++;
+    }
+
+    /** Number of samples in the window */
+    public int size() {
+        return (int) Math.min(added, samples.length);
+    }
+
+    /** Value below which the fraction p (0 to 1) of the window falls, 0 if empty */
+    public long percentile(double p) {
+        int n = size();
+        if (n == 0) {
+            return 0;
+        }
+        System.arraycopy(samples, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        int k = (int) Math.ceil(p * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, k))];
+    }
+
+    public long max() {
+        return percentile(1);
+    }
+
+    public double mean() {
+        int n = size();
+        if (n == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            total += samples[i];
+        }
+        return (double) total / n;
+    }
+}
@@ -1,9 +1,10 @@
 public class Sandbox {
     public static void main(String[] args){
-        Circle circ = new Circle();
+        FlockState state = new FlockState(1, WorldConfig.DEFAULT);
+        state.setCount(1);
 
-        System.out.println(circ.getXY().toString());
-        System.out.println(circ.yMAXRANGE);
+        System.out.println(new Point(state.x[0], state.y[0]).toString());
+        System.out.println(state.yMax);
 
     }
 }
@@ -0,0 +1,52 @@
+/** Plain loop version of NeighborKernel, works on every JVM */
+public class ScalarNeighborKernel implements NeighborKernel {
+
+    @Override
+    public void accumulate(int[] x, int[] y, int[] dx, int[] dy, int from, int to, int self,
+            int xi, int yi, int perceptionSq, int touchingSq, long[] sums) {
+        long sepX = 0;
+        long sepY = 0;
+        long alignX = 0;
+        long alignY = 0;
+        long cohX = 0;
+        long cohY = 0;
+        int inRange = 0;
+        int touching = 0;
+        int nearest = Integer.MAX_VALUE;
+        for (int k = from; k < to; k++) {
+            int ox = x[k] - xi;
+            int oy = y[k] - yi;
+            int distanceSq = ox * ox + oy * oy;
+            if (k == self || distanceSq > perceptionSq) {
+                continue;
+            }
+            if (distanceSq < touchingSq) {
+                sepX -= ox;
+                sepY -= oy;
+                touching++;
+            }
+            nearest = Math.min(nearest, distanceSq);
+            alignX += dx[k];
+            alignY += dy[k];
+            cohX += ox;
+            cohY += oy;
+            inRange++;
+        }
+        sums[SEP_X] += sepX;
+        sums[SEP_Y] += sepY;
+        sums[ALIGN_X] += alignX;
+        sums[ALIGN_Y] += alignY;
+        sums[COH_X] += cohX;
+        sums[COH_Y] += cohY;
+        sums[IN_RANGE] += inRange;
+        sums[TOUCHING] += touching;
+        if (nearest != Integer.MAX_VALUE) {
+            sums[NEAREST_SQ] = Math.min(sums[NEAREST_SQ], nearest);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JFrame;
+
+/**
+ * Runs one world split across worker processes on this machine, so the
+ * world is not capped by one JVM's memory and cores.
+ *
+ * The world is cut into vertical strips, one per ShardWorker process, each
+ * owning the circles inside it. Workers trade only border circles, and the
+ * circles that cross a border, with the workers next to them, directly over
+ * local sockets (see ShardWorker). The coordinator starts the workers,
+ * hands out the strips and the starting circles, asks for ticks and
+ * gathers the circles back into one flock for drawing.
+ *
+ * Run on its own it reports how throughput scales from 1 to N workers, or
+ * with --view shows the sharded world in a window.
+ *
+ * Usage: java ShardCoordinator [circles] [ticks] [maxWorkers] [--view workers]
+ */
+public class ShardCoordinator implements AutoCloseable {
+
+    /** Area (in square pixels) per circle for the world the report runs in */
+    private static final int AREA_PER_CIRCLE = 2500;
+    /** Longest wait (milliseconds) for a worker to start and connect */
+    private static final int CONNECT_TIMEOUT = 30000;
+
+    private final List<Process> processes = new ArrayList<>();
+    private final ShardLink[] workers;
+
+    /** Circles owned by each worker after the last tick */
+    private final int[] owned;
+    /** Circles handed between workers and ghosts taken in, summed over workers, on the last tick */
+    private int migrated = 0;
+    private int ghosts = 0;
+    /** Slowest worker's step and exchange time (nanoseconds) on the last tick */
+    private long stepNanos = 0;
+    private long exchangeNanos = 0;
+    private long tick = 0;
+
+    /**
+     * Starts n worker processes and gives each the strip of the world and
+     * the circles of initial inside it, with the strengths of rules
+     */
+    public ShardCoordinator(int n, WorldConfig world, FlockKernel rules, FlockState initial) throws IOException {
+        if (n > 1 && world.width / n < 4 * world.radius) {
+            // Collisions across a border need a strip no circle can touch both sides of
+            throw new IllegalArgumentException("Strips of " + world.width / n + " pixels are too narrow for "
+                    + n + " workers");
+        }
+        workers = new ShardLink[n];
+        owned = new int[n];
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        try (ServerSocket server = new ServerSocket(0, n, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT);
+            for (int k = 0; k < n; k++) {
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        "ShardWorker", "127.0.0.1", Integer.toString(server.getLocalPort()))
+                        .inheritIO().start());
+            }
+            int[] ports = new int[n];
+            for (int k = 0; k < n; k++) {
+                workers[k] = new ShardLink(server.accept());
+                ports[k] = workers[k].in.readInt();
+            }
+
+            for (int k = 0; k < n; k++) {
+                // The end strips reach past the walls, so every circle has an owner
+                int x0 = k == 0 ? Integer.MIN_VALUE : world.x + (int) ((long) world.width * k / n);
+                int x1 = k == n - 1 ? Integer.MAX_VALUE : world.x + (int) ((long) world.width * (k + 1) / n);
+                DataOutputStream out = workers[k].out;
+                out.writeInt(x0);
+                out.writeInt(x1);
+                out.writeInt(world.x);
+                out.writeInt(world.y);
+                out.writeInt(world.width);
+                out.writeInt(world.height);
+                out.writeInt(world.radius);
+                out.writeInt(world.steerLimit);
+                out.writeInt(world.startSpeed);
+                out.writeDouble(rules.getCoStr());
+                out.writeDouble(rules.getSepStr());
+                out.writeDouble(rules.getAlignStr());
+                out.writeInt(rules.getPerception());
+                int[] slots = new int[initial.count];
+                int inside = 0;
+                for (int i = 0; i < initial.count; i++) {
+                    if (initial.visible[i] && initial.x[i] >= x0 && initial.x[i] < x1) {
+                        slots[inside++] = i;
+                    }
+                }
+                ShardLink.writeCircles(out, initial, slots, inside, true);
+                owned[k] = inside;
+                out.writeInt(k + 1 < n ? ports[k + 1] : -1);
+                out.writeBoolean(k > 0);
+                workers[k].flush();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Runs one tick on every worker, they trade border circles among themselves */
+    public void tick() throws IOException {
+        for (ShardLink worker : workers) {
+            worker.out.writeInt(ShardLink.TICK);
+            worker.flush();
+        }
+        migrated = 0;
+        ghosts = 0;
+        stepNanos = 0;
+        exchangeNanos = 0;
+        for (int k = 0; k < workers.length; k++) {
+            DataInputStream in = workers[k].in;
+            owned[k] = in.readInt();
+            migrated += in.readInt();
+            ghosts += in.readInt();
+            stepNanos = Math.max(stepNanos, in.readLong());
+            exchangeNanos = Math.max(exchangeNanos, in.readLong());
+        }
+        tick++;
+    }
+
+    /** Gathers every worker's circles into s (locations and colors; directions are left at 0) */
+    public void collect(FlockState s) throws IOException {
+        for (ShardLink worker : workers) {
+            worker.out.writeInt(ShardLink.FRAME);
+            worker.flush();
+        }
+        s.count = 0;
+        for (ShardLink worker : workers) {
+            DataInputStream in = worker.in;
+            int n = in.readInt();
+            s.ensureCapacity(s.count + n);
+            for (int k = 0; k < n; k++) {
+                s.spawn(in.readInt(), in.readInt(), 0, 0, in.readInt());
+            }
+        }
+        for (int i = s.count; i < s.capacity(); i++) {
+            s.visible[i] = false;
+        }
+    }
+
+    /** Number of worker processes */
+    public int getWorkers() {
+        return workers.length;
+    }
+
+    /** Circles in every shard */
+    public int getCount() {
+        int total = 0;
+        for (int n : owned) {
+            total += n;
+        }
+        return total;
+    }
+
+    /** Circles that moved to another shard on the last tick */
+    public int getMigrated() {
+        return migrated;
+    }
+
+    /** Ghost circles copied across borders on the last tick, summed over workers */
+    public int getGhosts() {
+        return ghosts;
+    }
+
+    /** Slowest worker's time (nanoseconds) stepping, and trading with its neighbors, on the last tick */
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    public long getExchangeNanos() {
+        return exchangeNanos;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /** Stops the workers and waits for them to exit */
+    @Override
+    public void close() {
+        for (ShardLink worker : workers) {
+            if (worker == null) {
+                continue;
+            }
+            try {
+                worker.out.writeInt(ShardLink.STOP);
+                worker.flush();
+                worker.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int view = 0;
+        List<String> numbers = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--view")) {
+                view = Integer.parseInt(args[++i]);
+            } else {
+                numbers.add(args[i]);
+            }
+        }
+        int circles = numbers.size() > 0 ? Integer.parseInt(numbers.get(0)) : 200000;
+        int ticks = numbers.size() > 1 ? Integer.parseInt(numbers.get(1)) : 100;
+        int maxWorkers = numbers.size() > 2 ? Integer.parseInt(numbers.get(2))
+                : Runtime.getRuntime().availableProcessors();
+        WorldConfig world = WorldConfig.DEFAULT.withBounds(worldFor(circles));
+        FlockState initial = new FlockState(circles, world);
+        initial.setSeed(circles);
+        initial.setCount(circles);
+
+        if (view > 0) {
+            view(view, world, initial);
+            return;
+        }
+
+        System.out.println("circles=" + circles + " ticks=" + ticks + " world=" + world.width + "x" + world.height
+                + " cores=" + Runtime.getRuntime().availableProcessors());
+        System.out.println("workers,ticks/s,circle-steps/s,speedup,efficiency,ghosts/tick,migrated/tick,exchange share");
+        double base = 0;
+        for (int n = 1; n <= maxWorkers; n = nextCount(n, maxWorkers)) {
+            try (ShardCoordinator shards = new ShardCoordinator(n, world, new FlockKernel(), initial)) {
+                for (int t = 0; t < ticks / 4 + 1; t++) {
+                    shards.tick();
+                }
+                long ghosts = 0;
+                long migrated = 0;
+                long exchange = 0;
+                long step = 0;
+                long start = System.nanoTime();
+                for (int t = 0; t < ticks; t++) {
+                    shards.tick();
+                    ghosts += shards.getGhosts();
+                    migrated += shards.getMigrated();
+                    exchange += shards.getExchangeNanos();
+                    step += shards.getStepNanos();
+                }
+                double rate = ticks / ((System.nanoTime() - start) / 1e9);
+                if (n == 1) {
+                    base = rate;
+                }
+                double speedup = rate / base;
+                System.out.printf("%d,%.1f,%.0f,%.2f,%.2f,%d,%d,%.2f%n", n, rate, rate * circles, speedup,
+                        speedup / n, ghosts / ticks, migrated / ticks, (double) exchange / Math.max(1, exchange + step));
+            }
+        }
+    }
+
+    /** Ticks the sharded world as fast as it goes and draws every tick */
+    private static void view(int n, WorldConfig world, FlockState initial) throws IOException {
+        SnapshotExchange frames = new SnapshotExchange();
+        FlockCanvas canvas = new FlockCanvas(frames, world.radius, new int[] {0, 0, world.width, world.height});
+        JFrame window = new JFrame("Sharded world, " + n + " workers");
+        window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        window.getContentPane().setLayout(null);
+        window.getContentPane().add(canvas);
+        window.setSize(Math.min(world.width, 1600), Math.min(world.height, 1000));
+        window.setVisible(true);
+        try (ShardCoordinator shards = new ShardCoordinator(n, world, new FlockKernel(), initial)) {
+            FlockState frame = new FlockState(initial.count, world);
+            while (window.isDisplayable()) {
+                shards.tick();
+                shards.collect(frame);
+                frames.publish(frame, shards.getTick());
+                canvas.repaint();
+            }
+        }
+    }
+
+    /** Play area {x, y, w, h} with the GUI's 7:4 shape, AREA_PER_CIRCLE per circle */
+    private static int[] worldFor(int n) {
+        double area = (double) n * AREA_PER_CIRCLE;
+        int h = Math.max(200, (int) Math.sqrt(area * 4 / 7));
+        int w = Math.max(350, (int) (area / h));
+        return new int[] {0, 0, w, h};
+    }
+
+    private static int nextCount(int n, int max) {
+        if (n == max) {
+            return max + 1;
+        }
+        return Math.min(n * 2, max);
+    }
+}
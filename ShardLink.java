@@ -0,0 +1,73 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * One socket between two processes of a sharded world (coordinator and
+ * worker, or two neighboring workers), with buffered streams and the
+ * message pieces they exchange.
+ *
+ * Circles go over the wire as a count followed by x, y, dx, dy (and color
+ * for circles changing hands) per circle, as big-endian ints.
+ */
+public class ShardLink implements AutoCloseable {
+
+    /** Coordinator to worker commands */
+    static final int TICK = 1;
+    static final int FRAME = 2;
+    static final int STOP = 3;
+
+    private final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+
+    public ShardLink(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+    }
+
+    /** Writes the circles at the given slots of s to out, with colors when withColor is set */
+    static void writeCircles(DataOutputStream out, FlockState s, int[] slots, int n, boolean withColor)
+            throws IOException {
+        out.writeInt(n);
+        for (int k = 0; k < n; k++) {
+            int i = slots[k];
+            out.writeInt(s.x[i]);
+            out.writeInt(s.y[i]);
+            out.writeInt(s.dx[i]);
+            out.writeInt(s.dy[i]);
+            if (withColor) {
+                out.writeInt(s.color[i]);
+            }
+        }
+    }
+
+    /** Reads circles written by writeCircles and spawns them at the end of s, returns how many */
+    int readCircles(FlockState s, boolean withColor) throws IOException {
+        int n = in.readInt();
+        s.ensureCapacity(s.count + n);
+        for (int k = 0; k < n; k++) {
+            int px = in.readInt();
+            int py = in.readInt();
+            int pdx = in.readInt();
+            int pdy = in.readInt();
+            int rgb = withColor ? in.readInt() : 0;
+            s.spawn(px, py, pdx, pdy, rgb);
+        }
+        return n;
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,349 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * One worker process of a sharded world (see ShardCoordinator): owns the
+ * circles in one vertical strip of the world and steps them, trading
+ * border circles with the workers of the strips to its left and right.
+ *
+ * A tick, when the coordinator asks for one:
+ * 1. Circles within perception of a border are sent to that neighbor, and
+ *    the neighbors' are added as ghosts, so border circles see everyone
+ *    they would in one process.
+ * 2. Own circles and ghosts are stepped together; the ghosts are dropped.
+ * 3. Circles that left the strip are handed to the neighbor.
+ * 4. Collisions inside the strip are resolved, then those across each
+ *    border on the worker to its left only: the circles within touching
+ *    distance of the left border are sent there, swapped with that
+ *    worker's own and sent back with their new directions.
+ * The step gives the same result as one process. Collisions swap the same
+ * pairs in a different order, and as every pair is swapped exactly once
+ * the directions are still only traded, never copied (strips must be at
+ * least four radii wide for that).
+ *
+ * Usage (started by ShardCoordinator): java ShardWorker host port
+ */
+public class ShardWorker {
+
+    /** Link to the coordinator, and to the workers left and right of this strip (null at the ends) */
+    private final ShardLink coordinator;
+    private ShardLink left;
+    private ShardLink right;
+
+    /** Strip owned by this worker: x0 <= x < x1 */
+    private int x0;
+    private int x1;
+
+    /** Own circles, followed by ghosts while a tick runs */
+    private FlockState state;
+    /** Own circles near the right border followed by the right neighbor's near it, while collisions across it run */
+    private FlockState halo;
+    private final FlockKernel kernel = new FlockKernel();
+    private final SpatialGrid grid = new SpatialGrid(kernel.getPerception());
+    private final CollisionStage collisions = new CollisionStage();
+
+    /** Messages to the left and right neighbors, built before sending */
+    private final ByteArrayOutputStream toLeft = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream toRight = new ByteArrayOutputStream();
+    /** Sends to the neighbors while this thread reads from them, so two full socket buffers can't deadlock */
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "shard-sender");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Slots picked for a message, and the own slots copied into halo */
+    private int[] slots = new int[64];
+    private int[] across = new int[64];
+
+    /** Circles handed to neighbors and ghosts taken in on the last tick, and time spent */
+    private int migrated = 0;
+    private int ghosts = 0;
+    private long stepNanos = 0;
+    private long exchangeNanos = 0;
+
+    public static void main(String[] args) throws IOException {
+        InetAddress host = InetAddress.getByName(args[0]);
+        int port = Integer.parseInt(args[1]);
+        try (ServerSocket server = new ServerSocket(0, 4, InetAddress.getLoopbackAddress());
+             ShardLink coordinator = new ShardLink(new Socket(host, port))) {
+            // Tell the coordinator where the left neighbor can reach this worker
+            coordinator.out.writeInt(server.getLocalPort());
+            coordinator.flush();
+            new ShardWorker(coordinator).run(server);
+        }
+    }
+
+    private ShardWorker(ShardLink coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /** Reads the setup, links up with the neighbors and serves commands until STOP */
+    private void run(ServerSocket server) throws IOException {
+        readSetup();
+        int rightPort = coordinator.in.readInt();
+        boolean hasLeft = coordinator.in.readBoolean();
+        // Connecting completes in the neighbor's backlog, so connect right before accepting left
+        if (rightPort >= 0) {
+            right = new ShardLink(new Socket(InetAddress.getLoopbackAddress(), rightPort));
+        }
+        if (hasLeft) {
+            left = new ShardLink(server.accept());
+        }
+        try {
+            while (true) {
+                int command = coordinator.in.readInt();
+                if (command == ShardLink.TICK) {
+                    tick();
+                    coordinator.out.writeInt(state.count);
+                    coordinator.out.writeInt(migrated);
+                    coordinator.out.writeInt(ghosts);
+                    coordinator.out.writeLong(stepNanos);
+                    coordinator.out.writeLong(exchangeNanos);
+                } else if (command == ShardLink.FRAME) {
+                    writeFrame();
+                } else {
+                    return;
+                }
+                coordinator.flush();
+            }
+        } finally {
+            sender.shutdownNow();
+            if (left != null) {
+                left.close();
+            }
+            if (right != null) {
+                right.close();
+            }
+        }
+    }
+
+    private void readSetup() throws IOException {
+        DataInputStream in = coordinator.in;
+        x0 = in.readInt();
+        x1 = in.readInt();
+        WorldConfig world = new WorldConfig(in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                in.readInt(), in.readInt(), in.readInt());
+        kernel.setLimit(world.steerLimit);
+        kernel.setCoStr(in.readDouble());
+        kernel.setSepStr(in.readDouble());
+        kernel.setAlignStr(in.readDouble());
+        kernel.setPerception(in.readInt());
+        state = new FlockState(0, world);
+        halo = new FlockState(0, world);
+        coordinator.readCircles(state, true);
+    }
+
+    private void tick() throws IOException {
+        int perception = kernel.getPerception();
+        long start = System.nanoTime();
+
+        // 1. Ghosts within perception of each border
+        int owned = state.count;
+        exchange(perception);
+        ghosts = state.count - owned;
+        long exchanged = System.nanoTime();
+
+        // 2. Step everything, keep only own circles
+        grid.setCellSize(perception);
+        grid.rebuild(state.x, state.y, state.dx, state.dy, state.visible, state.count);
+        state.ensureNextBuffers();
+        kernel.stepBuffered(state, grid, 0, grid.size());
+        kernel.carryHidden(state, 0, state.count);
+        state.swap();
+        drop(owned);
+        long stepped = System.nanoTime();
+
+        // 3. Hand over circles that left the strip, take in those that entered
+        migrate();
+        long handed = System.nanoTime();
+
+        // 4. Collisions inside the strip, then across its borders
+        collisions.detect(state);
+        collisions.resolve(state);
+        long resolved = System.nanoTime();
+        collideAcross(2 * state.radius);
+
+        long end = System.nanoTime();
+        exchangeNanos = (exchanged - start) + (handed - stepped) + (end - resolved);
+        stepNanos = (stepped - exchanged) + (resolved - handed);
+    }
+
+    /**
+     * Sends each neighbor the own circles within reach of its border, then
+     * adds what the neighbors sent as ghosts after the own circles
+     */
+    private void exchange(int reach) throws IOException {
+        if (left == null && right == null) {
+            return;
+        }
+        toLeft.reset();
+        toRight.reset();
+        writeSide(new DataOutputStream(toLeft), left != null, x -> x < x0 + reach, false);
+        writeSide(new DataOutputStream(toRight), right != null, x -> x >= x1 - reach, false);
+        Future<?> sent = send(left != null, right != null);
+        for (ShardLink link : new ShardLink[] {left, right}) {
+            if (link != null) {
+                link.readCircles(state, false);
+            }
+        }
+        await(sent);
+    }
+
+    /** Hands the circles that crossed a border to that neighbor and takes in the ones it handed here */
+    private void migrate() throws IOException {
+        migrated = 0;
+        if (left == null && right == null) {
+            return;
+        }
+        toLeft.reset();
+        toRight.reset();
+        writeSide(new DataOutputStream(toLeft), left != null, x -> x < x0, true);
+        writeSide(new DataOutputStream(toRight), right != null, x -> x >= x1, true);
+        // Highest slot first so the moves stay valid
+        for (int i = state.count - 1; i >= 0; i--) {
+            if ((left != null && state.x[i] < x0) || (right != null && state.x[i] >= x1)) {
+                state.despawn(i);
+                migrated++;
+            }
+        }
+        Future<?> sent = send(left != null, right != null);
+        for (ShardLink link : new ShardLink[] {left, right}) {
+            if (link != null) {
+                link.readCircles(state, true);
+            }
+        }
+        await(sent);
+    }
+
+    /**
+     * Resolves the pairs touching across each border once, on the worker to
+     * its left: own circles near the left border go to the left neighbor,
+     * which swaps them with its own and sends back their new directions.
+     * Runs after the collisions inside the strip, so both see the same
+     * directions and every swap only trades them.
+     */
+    private void collideAcross(int touching) throws IOException {
+        if (left == null && right == null) {
+            return;
+        }
+        toLeft.reset();
+        int lent = writeSide(new DataOutputStream(toLeft), left != null, x -> x < x0 + touching, false);
+        Future<?> sent = send(left != null, false);
+
+        if (right != null) {
+            // Own circles near the border first, then the neighbor's
+            halo.count = 0;
+            int near = 0;
+            for (int i = 0; i < state.count; i++) {
+                if (state.visible[i] && state.x[i] >= x1 - touching) {
+                    if (near == across.length) {
+                        across = Arrays.copyOf(across, near * 2);
+                    }
+                    across[near++] = i;
+                    halo.spawn(state.x[i], state.y[i], state.dx[i], state.dy[i], 0);
+                }
+            }
+            right.readCircles(halo, false);
+            collisions.detect(halo);
+            collisions.resolveAcross(halo, near);
+            for (int k = 0; k < near; k++) {
+                state.dx[across[k]] = halo.dx[k];
+                state.dy[across[k]] = halo.dy[k];
+            }
+            toRight.reset();
+            DataOutputStream out = new DataOutputStream(toRight);
+            for (int k = near; k < halo.count; k++) {
+                out.writeInt(halo.dx[k]);
+                out.writeInt(halo.dy[k]);
+            }
+            await(sent);
+            sent = send(false, true);
+        }
+
+        if (left != null) {
+            // Directions of the circles lent, in the order they were sent
+            for (int k = 0; k < lent; k++) {
+                state.dx[slots[k]] = left.in.readInt();
+                state.dy[slots[k]] = left.in.readInt();
+            }
+        }
+        await(sent);
+    }
+
+    /** Sends the messages built for the neighbors on the sender thread, so this one can read meanwhile */
+    private Future<?> send(boolean toLeftToo, boolean toRightToo) {
+        return sender.submit(() -> {
+            if (toLeftToo) {
+                toLeft.writeTo(left.out);
+                left.flush();
+            }
+            if (toRightToo) {
+                toRight.writeTo(right.out);
+                right.flush();
+            }
+            return null;
+        });
+    }
+
+    private static void await(Future<?> sent) throws IOException {
+        try {
+            sent.get();
+        } catch (Exception e) {
+            throw new IOException("Could not send to a neighbor", e);
+        }
+    }
+
+    /** Which x locations go to a neighbor */
+    private interface Side {
+        boolean test(int x);
+    }
+
+    /**
+     * Writes the visible own circles whose x passes the test, when there is
+     * a neighbor on that side, and returns how many (their slots are in slots)
+     */
+    private int writeSide(DataOutputStream out, boolean linked, Side side, boolean withColor) throws IOException {
+        if (!linked) {
+            return 0;
+        }
+        int n = 0;
+        for (int i = 0; i < state.count; i++) {
+            if (state.visible[i] && side.test(state.x[i])) {
+                if (n == slots.length) {
+                    slots = Arrays.copyOf(slots, n * 2);
+                }
+                slots[n++] = i;
+            }
+        }
+        ShardLink.writeCircles(out, state, slots, n, withColor);
+        return n;
+    }
+
+    /** Keeps the first n circles, dropping the ghosts after them */
+    private void drop(int n) {
+        for (int i = n; i < state.count; i++) {
+            state.visible[i] = false;
+        }
+        state.count = n;
+    }
+
+    /** Locations and colors of the own circles, for the viewer */
+    private void writeFrame() throws IOException {
+        coordinator.out.writeInt(state.count);
+        for (int i = 0; i < state.count; i++) {
+            coordinator.out.writeInt(state.x[i]);
+            coordinator.out.writeInt(state.y[i]);
+            coordinator.out.writeInt(state.color[i]);
+        }
+    }
+}
@@ -3,6 +3,9 @@
  * Contains the main to create the Simulation application.
  */
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /**
  * Driver class for the Simulation application.
  * @author Erik Steinmetz
@@ -11,11 +14,11 @@ public class Simulation {
 
     /**
      * Creates a TempGui object and makes it visible.
-     * @param args the command line arguments
+     * @param args the command line arguments, optionally a world file (see WorldConfig)
      */
-    public static void main(String[] args) {
-        
-        Controller theApplication = new Controller();
+    public static void main(String[] args) throws IOException {
+        WorldConfig world = args.length > 0 ? WorldConfig.load(Paths.get(args[0])) : WorldConfig.DEFAULT;
+        Controller theApplication = new Controller(world);
     }
     
 }
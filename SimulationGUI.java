@@ -1,4 +1,5 @@
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JTextField;
@@ -6,6 +7,8 @@ import javax.swing.JPanel;
 import javax.swing.JSlider;
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
 
 /**
  * The "VIEW" of Model-View-Controller
@@ -14,8 +17,8 @@ import java.util.ArrayList;
  */
 public class SimulationGUI extends JFrame {
 
-    // Playbox bounds {x, y, w, h}
-    protected final int[] playBoxBounds = {50, 150, 1050, 600};
+    // Playbox bounds {x, y, w, h}, from the model's world
+    protected final int[] playBoxBounds;
 
     // {R,G,B} values from 0-255 each
     protected Color backGroundColor = new Color(60, 60, 60);
@@ -28,12 +31,54 @@ public class SimulationGUI extends JFrame {
     private final JLabel dot = new JLabel("HERE!");
 
     // Controller GUI Components
-    private final JLabel countLabel = new JLabel("Circles (2-100): ");
+    private final JLabel countLabel = new JLabel("Circles (2+): ");
     protected final JTextField count = new JTextField(10);
 
-    private final JLabel speedLabel = new JLabel("Speed (1-5): ");
+    private final JLabel threadsLabel = new JLabel("Threads: ");
+    protected final JTextField threads = new JTextField("1", 4);
+
+    /** Number of nearest circles each one follows, 0 for every circle within perception */
+    private final JLabel nearestLabel = new JLabel("Nearest k (0 = off): ");
+    protected final JTextField nearest = new JTextField("0", 4);
+
+    /** Extra distance kept in the Verlet neighbor lists, 0 to look neighbors up on the grid every tick */
+    private final JLabel verletLabel = new JLabel("Verlet skin (0 = off): ");
+    protected final JTextField verlet = new JTextField("0", 4);
+    /** Every circle reads this tick and writes the next, instead of seeing the ones already moved */
+    protected final JCheckBox doubleBuffered = new JCheckBox("Double-buffered", false);
+
+    /** Most circles in view drawn one by one, more are drawn as a density heatmap */
+    private final JLabel lodLabel = new JLabel("Heatmap above: ");
+    protected final JTextField lod = new JTextField(8);
+
+    private final JLabel speedLabel = new JLabel("Speed (0-5): ");
     protected final JTextField speed = new JTextField(10);
 
+    /** Seed for the circles made by Set Up, blank for a random one */
+    private final JLabel seedLabel = new JLabel("Seed: ");
+    protected final JTextField seed = new JTextField(10);
+
+    /** Recording file, written while Record is checked and replayed while Replay is checked */
+    private final JLabel fileLabel = new JLabel("File: ");
+    protected final JTextField file = new JTextField("flock.rec", 10);
+    protected final JCheckBox record = new JCheckBox("Record", false);
+    protected final JCheckBox replay = new JCheckBox("Replay", false);
+
+    /** Checkpoint file for Save and Load */
+    protected final JTextField checkpoint = new JTextField("flock.ckpt", 10);
+    private final JButton save = new JButton("Save");
+    private final JButton load = new JButton("Load");
+    /** Obstacles file, loaded with the Obstacles check box */
+    protected final JTextField obstacleFile = new JTextField("obstacles.txt", 10);
+    protected final JCheckBox obstacles = new JCheckBox("Obstacles", false);
+
+    /** Lower quality as needed to hold the target tick rate */
+    protected final JCheckBox governor = new JCheckBox("Governor", false);
+
+    /** Export every EXPORT_EVERY-th tick to CSV and columnar files named after the File field */
+    protected final JCheckBox export = new JCheckBox("Export", false);
+    public static final int EXPORT_EVERY = 10;
+
     // Boid Sliders
     private final JLabel cohesionLabel = new JLabel("Cohesion (0 - 100): ");
     protected final JSlider cohesion = new JSlider(0, 100);
@@ -44,16 +89,42 @@ public class SimulationGUI extends JFrame {
     private final JLabel alignmentLabel = new JLabel("Alignment (0 - 100): ");
     protected final JSlider alignment = new JSlider(0, 100);
 
+    private final JLabel perceptionLabel = new JLabel("Perception (10 - 400): ");
+    protected final JSlider perception = new JSlider(10, 400, 100);
+
     private final JButton stop = new JButton("Stop");
     private final JButton play = new JButton("Play");
     private final JButton restart = new JButton("Set Up");
+    private final JButton spawn = new JButton("Spawn");
+    private final JButton despawn = new JButton("Despawn");
 
-    private ArrayList<Circle> circles;
+    /** Draw every circle on one canvas instead of one panel per circle */
+    protected final JCheckBox oneCanvas = new JCheckBox("One canvas", true);
+    /** Show tick and draw measurements over the play area */
+    protected final JCheckBox showMetrics = new JCheckBox("Metrics", false);
+    /** Overlay text, one line per measurement */
+    private final JLabel metricsLabel = new JLabel();
 
+    /** Most circles drawn as separate panels, use the canvas for more */
+    private static final int MAX_PANELS = 2000;
 
-    public SimulationGUI() {
+    /** One panel per circle, made as needed up to MAX_PANELS */
+    private ArrayList<Circle> circles = new ArrayList<>();
+    /** Flock the panels show */
+    private FlockState flock;
+
+    /** Draws the whole flock in one pass */
+    private FlockCanvas canvas;
+
+    /** Frames published by the model */
+    private SnapshotExchange frames;
+    /** Tick measurements of the model */
+    private TickMetrics metrics;
+    /** Model, for what it is exporting */
+    private CircleModel model;
+    /** True while a redraw is queued on the Swing thread */
+    private final AtomicBoolean renderQueued = new AtomicBoolean(false);
 
-    }
 
     /**
      * Creates a Simulation GUI application.
@@ -64,6 +135,7 @@ public class SimulationGUI extends JFrame {
 
         // Initialize the graphics window
         super("Simulation");
+        playBoxBounds = model.getWorld().bounds();
         this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         this.setResizable(false);
         this.setSize(1200,1200);
@@ -79,12 +151,25 @@ public class SimulationGUI extends JFrame {
         playArea.setForeground(textColor);
         getContentPane().add(playArea);
 
-        // The Circles
-        circles = model.getCircles();
-        for (Circle circle: circles) {
-            circle.setLocation(circle.getXY().x,circle.getXY().y);
-            getContentPane().add(circle);
-        }
+        // The Circles, panels are added as the flock grows
+        flock = model.getFlock();
+
+        // Metrics overlay, added before the canvas so it is drawn on top
+        this.model = model;
+        metrics = model.getMetrics();
+        this.metricsLabel.setBounds(playBoxBounds[0] + 10, playBoxBounds[1] + 10, 520, 210);
+        this.metricsLabel.setVerticalAlignment(JLabel.TOP);
+        this.metricsLabel.setForeground(dotColor);
+        this.metricsLabel.setVisible(false);
+        getContentPane().add(metricsLabel);
+
+        // The single canvas, drawn instead of the circle panels when checked
+        frames = model.getFrames();
+        canvas = new FlockCanvas(frames, flock.radius, playBoxBounds);
+        canvas.setViewListener(model::setView);
+        lod.setText(String.valueOf(model.getLodThreshold()));
+        getContentPane().add(canvas);
+        setCanvasMode(oneCanvas.isSelected());
 
         // For debugging bounds!
         this.dot.setBounds(50, 150, 20, 10);
@@ -135,6 +220,16 @@ public class SimulationGUI extends JFrame {
         this.cohesion.setForeground(textColor);
         this.getContentPane().add(cohesion);
 
+        // Place the perception label and slider
+        this.perceptionLabel.setBounds(1050, 100, 130, 30);
+        this.perceptionLabel.setForeground(textColor);
+        this.getContentPane().add(perceptionLabel);
+
+        this.perception.setBounds(1185, 100, 100, 50);
+        this.perception.setBackground(backGroundColor);
+        this.perception.setForeground(textColor);
+        this.getContentPane().add(perception);
+
         // End Sliders ---------------------------------------------------------------------------------------
         
         // place the sim speed label and text box
@@ -147,6 +242,125 @@ public class SimulationGUI extends JFrame {
         this.speed.setForeground(textColor);
         this.getContentPane().add(this.speed);
 
+        // place the seed label and text box
+        this.seedLabel.setBounds(330, 50, 60, 30);
+        this.seedLabel.setForeground(textColor);
+        this.getContentPane().add(this.seedLabel);
+
+        this.seed.setBounds(390, 50, 120, 30);
+        this.seed.setBackground(backGroundColor);
+        this.seed.setForeground(textColor);
+        this.getContentPane().add(this.seed);
+
+        // place the recording file, record and replay check boxes
+        this.fileLabel.setBounds(530, 50, 40, 30);
+        this.fileLabel.setForeground(textColor);
+        this.getContentPane().add(this.fileLabel);
+
+        this.file.setBounds(570, 50, 120, 30);
+        this.file.setBackground(backGroundColor);
+        this.file.setForeground(textColor);
+        this.getContentPane().add(this.file);
+
+        this.record.setBounds(700, 50, 90, 30);
+        this.record.addActionListener(control);
+        this.record.setBackground(backGroundColor);
+        this.record.setForeground(textColor);
+        this.getContentPane().add(this.record);
+
+        this.replay.setBounds(790, 50, 90, 30);
+        this.replay.addActionListener(control);
+        this.replay.setBackground(backGroundColor);
+        this.replay.setForeground(textColor);
+        this.getContentPane().add(this.replay);
+
+        // place the checkpoint file and the save and load buttons
+        this.checkpoint.setBounds(890, 50, 100, 30);
+        this.checkpoint.setBackground(backGroundColor);
+        this.checkpoint.setForeground(textColor);
+        this.getContentPane().add(this.checkpoint);
+
+        this.save.setBounds(995, 50, 80, 30);
+        this.save.addActionListener(control);
+        this.save.setForeground(secondaryColor);
+        this.getContentPane().add(this.save);
+
+        this.load.setBounds(1080, 50, 80, 30);
+        this.load.addActionListener(control);
+        this.load.setForeground(secondaryColor);
+        this.getContentPane().add(this.load);
+
+        this.export.setBounds(1165, 50, 90, 30);
+        this.export.addActionListener(control);
+        this.export.setBackground(backGroundColor);
+        this.export.setForeground(textColor);
+        this.getContentPane().add(this.export);
+
+        // place the threads label and text box
+        this.threadsLabel.setBounds(330, 20, 60, 30);
+        this.threadsLabel.setForeground(textColor);
+        this.getContentPane().add(this.threadsLabel);
+
+        this.threads.setBounds(390, 20, 50, 30);
+        this.threads.setBackground(backGroundColor);
+        this.threads.setForeground(textColor);
+        this.getContentPane().add(this.threads);
+
+        // place the nearest k label and text box
+        this.nearestLabel.setBounds(900, 20, 130, 30);
+        this.nearestLabel.setForeground(textColor);
+        this.getContentPane().add(this.nearestLabel);
+
+        this.nearest.setBounds(1030, 20, 50, 30);
+        this.nearest.setBackground(backGroundColor);
+        this.nearest.setForeground(textColor);
+        this.getContentPane().add(this.nearest);
+
+        // place the verlet skin label and text box, and the double-buffered check box
+        this.verletLabel.setBounds(1295, 100, 135, 30);
+        this.verletLabel.setForeground(textColor);
+        this.getContentPane().add(this.verletLabel);
+
+        this.verlet.setBounds(1430, 100, 50, 30);
+        this.verlet.setBackground(backGroundColor);
+        this.verlet.setForeground(textColor);
+        this.getContentPane().add(this.verlet);
+
+        this.doubleBuffered.setBounds(1490, 100, 140, 30);
+        this.doubleBuffered.addActionListener(control);
+        this.doubleBuffered.setBackground(backGroundColor);
+        this.doubleBuffered.setForeground(textColor);
+        this.getContentPane().add(this.doubleBuffered);
+
+        // place the obstacles file and check box
+        this.obstacleFile.setBounds(1090, 20, 110, 30);
+        this.obstacleFile.setBackground(backGroundColor);
+        this.obstacleFile.setForeground(textColor);
+        this.getContentPane().add(this.obstacleFile);
+
+        this.obstacles.setBounds(1205, 20, 100, 30);
+        this.obstacles.addActionListener(control);
+        this.obstacles.setBackground(backGroundColor);
+        this.obstacles.setForeground(textColor);
+        this.getContentPane().add(this.obstacles);
+
+        // place the governor check box
+        this.governor.setBounds(1310, 20, 100, 30);
+        this.governor.addActionListener(control);
+        this.governor.setBackground(backGroundColor);
+        this.governor.setForeground(textColor);
+        this.getContentPane().add(this.governor);
+
+        // place the heatmap threshold label and text box
+        this.lodLabel.setBounds(1265, 50, 105, 30);
+        this.lodLabel.setForeground(textColor);
+        this.getContentPane().add(this.lodLabel);
+
+        this.lod.setBounds(1370, 50, 80, 30);
+        this.lod.setBackground(backGroundColor);
+        this.lod.setForeground(textColor);
+        this.getContentPane().add(this.lod);
+
         // place the restart button 
         this.restart.setBounds(200, 20, 120, 30);
         this.restart.addActionListener(control);
@@ -154,6 +368,31 @@ public class SimulationGUI extends JFrame {
         //this.restart.setBackground(buttonColor);
         this.getContentPane().add(this.restart);
         
+        // place the canvas check box
+        this.oneCanvas.setBounds(450, 20, 120, 30);
+        this.oneCanvas.addActionListener(control);
+        this.oneCanvas.setBackground(backGroundColor);
+        this.oneCanvas.setForeground(textColor);
+        this.getContentPane().add(this.oneCanvas);
+
+        // place the metrics check box
+        this.showMetrics.setBounds(790, 20, 100, 30);
+        this.showMetrics.addActionListener(control);
+        this.showMetrics.setBackground(backGroundColor);
+        this.showMetrics.setForeground(textColor);
+        this.getContentPane().add(this.showMetrics);
+
+        // place the spawn and despawn buttons
+        this.spawn.setBounds(580, 20, 100, 30);
+        this.spawn.addActionListener(control);
+        this.spawn.setForeground(secondaryColor);
+        this.getContentPane().add(this.spawn);
+
+        this.despawn.setBounds(685, 20, 100, 30);
+        this.despawn.addActionListener(control);
+        this.despawn.setForeground(secondaryColor);
+        this.getContentPane().add(this.despawn);
+
         // place the play and stop buttons
         this.play.setBounds(40, 100, 120, 30);
         this.play.addActionListener(control);
@@ -168,4 +407,74 @@ public class SimulationGUI extends JFrame {
         this.getContentPane().add(this.stop);
     }
 
-}
\ No newline at end of file
+    /** Makes sure there are at least n circle panels */
+    private void addPanels(int n) {
+        while (circles.size() < n) {
+            Circle circle = new Circle(flock, circles.size());
+            getContentPane().add(circle);
+            circles.add(circle);
+        }
+    }
+
+    /** Shows either the single canvas or the circle panels */
+    public void setCanvasMode(boolean on) {
+        // Circle panels only show the whole play area
+        canvas.resetView();
+        canvas.setVisible(on);
+        for (Circle circle: circles) {
+            circle.setVisible(!on);
+        }
+    }
+
+    /** Shows the obstacles on the canvas, null for none. Safe to call from any thread. */
+    public void setObstacles(ObstacleField field) {
+        SwingUtilities.invokeLater(() -> {
+            canvas.setObstacles(field);
+            canvas.repaint();
+        });
+    }
+
+    /** Shows or hides the metrics overlay */
+    public void setMetricsShown(boolean on) {
+        metrics.setOverlayShown(on);
+        metricsLabel.setVisible(on);
+    }
+
+    /**
+     * Redraws the circles with whichever renderer is active. Safe to call from
+     * any thread; the work is queued on the Swing thread, once at a time.
+     */
+    public void render() {
+        if (renderQueued.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::renderNow);
+        }
+    }
+
+    /** Draws the latest frame, on the Swing thread */
+    private void renderNow() {
+        renderQueued.set(false);
+        if (oneCanvas.isSelected()) {
+            canvas.repaint();
+        } else {
+            FrameSnapshot frame = frames.latest();
+            addPanels(Math.min(frame.count, MAX_PANELS));
+            for (Circle circle: circles) {
+                // Set the location, which prompts the viewer to newly display the circle
+                circle.updateFrom(frame);
+            }
+            getContentPane().repaint();
+        }
+        if (showMetrics.isSelected()) {
+            String text = metrics.getSummary();
+            if (oneCanvas.isSelected()) {
+                text += "\n" + canvas.getDrawSummary();
+            }
+            TelemetryExporter exporter = model.getExporter();
+            if (exporter != null) {
+                text += "\n" + exporter.summary();
+            }
+            metricsLabel.setText("<html>" + text.replace("\n", "<br>") + "</html>");
+        }
+    }
+
+}
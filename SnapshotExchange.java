@@ -0,0 +1,67 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer between the model thread (writer) and the Swing
+ * thread (reader).
+ *
+ * There are three snapshots: one the writer is filling, one the reader is
+ * drawing, and one in the middle holding the latest finished frame. Both
+ * sides only ever trade their own snapshot for the middle one with a single
+ * atomic swap, so neither side waits and the reader never sees a frame that
+ * is half written.
+ */
+public class SnapshotExchange {
+
+    /** Set on the middle index when it holds a frame the reader has not taken */
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final FrameSnapshot[] frames = {new FrameSnapshot(), new FrameSnapshot(), new FrameSnapshot()};
+
+    /** Index of the middle snapshot, plus the FRESH bit */
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    /** Only touched by the writer */
+    private int back = 0;
+    /** Only touched by the reader */
+    private int front = 2;
+
+    /** Frames published so far */
+    private volatile long published = 0;
+
+    /** Snapshot the writer may fill, not visible to the reader until published */
+    public FrameSnapshot back() {
+        return frames[back];
+    }
+
+    /** Hands the filled back snapshot to the reader and takes a free one */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+        published++;
+    }
+
+    /** Copies the state into the back snapshot and publishes it */
+    public void publish(FlockState s, long tick) {
+        back().copyFrom(s, tick);
+        publish();
+    }
+
+    /** Takes the back snapshot for a view (see FrameSnapshot) and publishes it */
+    public void publish(FlockState s, long tick, RenderView view, int lodThreshold) {
+        back().copyFrom(s, tick, view, lodThreshold);
+        publish();
+    }
+
+    /** Latest published snapshot; the same one again if nothing new was published */
+    public FrameSnapshot latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return frames[front];
+    }
+
+    /** Frames published so far */
+    public long getPublished() {
+        return published;
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the circles, used so a circle only looks at circles in
+ * the cells around it instead of the whole list.
+ *
+ * The grid is rebuilt once per tick with a counting sort: items holds circle
+ * indices grouped by cell, and cellStart[c] .. cellStart[c+1] is the slice
+ * belonging to cell c. Nothing is allocated once the arrays are big enough.
+ */
+public class SpatialGrid implements CellGrid {
+
+    /** Width and height of a cell, normally the perception radius */
+    private int cellSize;
+
+    /** Top left corner and size (in cells) of the last rebuild */
+    private int originX = 0;
+    private int originY = 0;
+    private int cols = 1;
+    private int rows = 1;
+
+    /** Start of each cell's slice in items (one extra entry at the end) */
+    private int[] cellStart = new int[2];
+    /** Circle indices sorted by cell */
+    private int[] items = new int[0];
+    /** Cell of each circle from the last rebuild, -1 if not in the grid */
+    private int[] cellOf = new int[0];
+
+    /**
+     * Copies of location and direction in the same order as items, so a slice
+     * of cells can be read front to back without jumping around. Only filled
+     * by the rebuild that is given directions.
+     */
+    private int[] sortedX = new int[0];
+    private int[] sortedY = new int[0];
+    private int[] sortedDx = new int[0];
+    private int[] sortedDy = new int[0];
+
+    /** Constructor specifies the size of a cell */
+    public SpatialGrid(int cellSize) {
+        setCellSize(cellSize);
+    }
+
+    /** Changes the cell size, takes effect on the next rebuild */
+    public void setCellSize(int size) {
+        cellSize = Math.max(1, size);
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /** Sorts the first count visible circles into cells */
+    public void rebuild(int[] xs, int[] ys, boolean[] visible, int count) {
+        rebuild(xs, ys, null, null, visible, count);
+    }
+
+    /**
+     * Sorts the first count visible circles into cells and, when dxs and dys
+     * are given, fills the sorted copies of location and direction.
+     */
+    public void rebuild(int[] xs, int[] ys, int[] dxs, int[] dys, boolean[] visible, int count) {
+        ensureCapacity(count);
+
+        // Size the grid to the area the circles currently cover
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (visible[i]) {
+                minX = Math.min(minX, xs[i]);
+                minY = Math.min(minY, ys[i]);
+                maxX = Math.max(maxX, xs[i]);
+                maxY = Math.max(maxY, ys[i]);
+            }
+        }
+        if (minX > maxX) {
+            minX = maxX = minY = maxY = 0;
+        }
+        originX = minX;
+        originY = minY;
+        cols = (maxX - minX) / cellSize + 1;
+        rows = (maxY - minY) / cellSize + 1;
+
+        int cells = cols * rows;
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + 1];
+        } else {
+            Arrays.fill(cellStart, 0, cells + 1, 0);
+        }
+
+        // Count circles per cell
+        for (int i = 0; i < count; i++) {
+            if (visible[i]) {
+                int cell = cellIndex(xs[i], ys[i]);
+                cellOf[i] = cell;
+                cellStart[cell + 1]++;
+            } else {
+                cellOf[i] = -1;
+            }
+        }
+        // Turn counts into start offsets
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        // Drop each circle into its slot, then shift the starts back
+        for (int i = 0; i < count; i++) {
+            int cell = cellOf[i];
+            if (cell >= 0) {
+                items[cellStart[cell]++] = i;
+            }
+        }
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+
+        if (dxs != null) {
+            int n = cellStart[cells];
+            if (sortedX.length < n) {
+                int size = Math.max(n, sortedX.length * 2);
+                sortedX = new int[size];
+                sortedY = new int[size];
+                sortedDx = new int[size];
+                sortedDy = new int[size];
+            }
+            for (int k = 0; k < n; k++) {
+                int i = items[k];
+                sortedX[k] = xs[i];
+                sortedY[k] = ys[i];
+                sortedDx[k] = dxs[i];
+                sortedDy[k] = dys[i];
+            }
+        }
+    }
+
+    /** Column of the cell containing x, clamped to the grid */
+    public int column(int x) {
+        int cx = (x - originX) / cellSize;
+        return cx < 0 ? 0 : (cx >= cols ? cols - 1 : cx);
+    }
+
+    /** Row of the cell containing y, clamped to the grid */
+    public int row(int y) {
+        int cy = (y - originY) / cellSize;
+        return cy < 0 ? 0 : (cy >= rows ? rows - 1 : cy);
+    }
+
+    public int getColumns() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /** First position in items for the cell at (col, row) */
+    public int cellStart(int col, int row) {
+        return cellStart[row * cols + col];
+    }
+
+    /** One past the last position in items for the cell at (col, row) */
+    public int cellEnd(int col, int row) {
+        return cellStart[row * cols + col + 1];
+    }
+
+    /** Number of circles in the grid */
+    public int size() {
+        return cellStart[cols * rows];
+    }
+
+    /** Circle index stored at a position in items */
+    public int item(int k) {
+        return items[k];
+    }
+
+    /** Location and direction copies in grid order, see rebuild */
+    public int[] sortedX() {
+        return sortedX;
+    }
+
+    public int[] sortedY() {
+        return sortedY;
+    }
+
+    public int[] sortedDx() {
+        return sortedDx;
+    }
+
+    public int[] sortedDy() {
+        return sortedDy;
+    }
+
+    private int cellIndex(int x, int y) {
+        return row(y) * cols + column(x);
+    }
+
+    private void ensureCapacity(int count) {
+        if (items.length < count) {
+            items = new int[count];
+            cellOf = new int[count];
+        }
+    }
+}
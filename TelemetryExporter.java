@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports the flock every few ticks without stalling the model thread.
+ *
+ * A fixed number of TelemetryFrames circulate between two bounded queues.
+ * The model thread takes a free frame, copies the state into it and queues
+ * it; a background writer takes queued frames in batches, writes them to
+ * every sink, and hands them back as free. When the writer falls behind
+ * and no frame is free, the DROP policy skips the sample and counts it,
+ * while BLOCK makes the model thread wait (back-pressure).
+ */
+public class TelemetryExporter implements AutoCloseable {
+
+    /** What to do when every frame is still waiting to be written */
+    public enum Policy { DROP, BLOCK }
+
+    /** Frames in circulation, also the most waiting to be written */
+    private static final int SLOTS = 8;
+
+    private final ArrayBlockingQueue<TelemetryFrame> free = new ArrayBlockingQueue<>(SLOTS);
+    private final ArrayBlockingQueue<TelemetryFrame> queued = new ArrayBlockingQueue<>(SLOTS);
+
+    private final List<TelemetrySink> sinks;
+    private final int every;
+    private final Policy policy;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /** Frames written, frames dropped, and circles written */
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    /** Time the writer spent writing (nanoseconds) */
+    private final AtomicLong writeNanos = new AtomicLong();
+    /** First error the writer hit, it stops writing after that */
+    private volatile IOException failure;
+
+    /**
+     * Constructor specifies where to write, to sample every n ticks, and
+     * what to do when the writer falls behind. Starts the writer thread.
+     */
+    public TelemetryExporter(List<TelemetrySink> sinks, int every, Policy policy) {
+        this.sinks = sinks;
+        this.every = Math.max(1, every);
+        this.policy = policy;
+        for (int i = 0; i < SLOTS; i++) {
+            free.add(new TelemetryFrame());
+        }
+        writer = new Thread(this::writeLoop, "telemetry-export");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Called by the model thread after each tick; copies the state out on
+     * sampled ticks. Only waits for the writer under the BLOCK policy.
+     */
+    public void offer(FlockState s, long tick, FlockOrder order) throws InterruptedException {
+        if (tick % every != 0 || failure != null) {
+            return;
+        }
+        TelemetryFrame frame = policy == Policy.BLOCK ? free.take() : free.poll();
+        if (frame == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+        frame.copyFrom(s, tick, order);
+        queued.add(frame);
+    }
+
+    /** Writes batches of queued frames until closed and drained */
+    private void writeLoop() {
+        List<TelemetryFrame> batch = new ArrayList<>(SLOTS);
+        while (running || !queued.isEmpty()) {
+            try {
+                TelemetryFrame first = queued.poll(50, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queued.drainTo(batch);
+                long start = System.nanoTime();
+                if (failure == null) {
+                    for (TelemetryFrame frame : batch) {
+                        for (TelemetrySink sink : sinks) {
+                            sink.write(frame);
+                        }
+                        rows.addAndGet(frame.count);
+                    }
+                    for (TelemetrySink sink : sinks) {
+                        sink.flush();
+                    }
+                    written.addAndGet(batch.size());
+                }
+                writeNanos.addAndGet(System.nanoTime() - start);
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                free.addAll(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /** Frames written so far */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /** Samples skipped because the writer was behind (DROP policy only) */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Bytes written by every sink so far */
+    public long getBytes() {
+        long total = 0;
+        for (TelemetrySink sink : sinks) {
+            total += sink.getBytes();
+        }
+        return total;
+    }
+
+    /** Circles written per second of writer time */
+    public double getRowsPerSecond() {
+        long nanos = writeNanos.get();
+        return nanos == 0 ? 0 : rows.get() * 1e9 / nanos;
+    }
+
+    /** The error that stopped the writer, null if none */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /** One line for the metrics overlay */
+    public String summary() {
+        String state = failure == null ? "" : "   failed: " + failure.getMessage();
+        return String.format("export frames %d  dropped %d  %.1f MB  %.0f rows/s%s",
+                getWritten(), getDropped(), getBytes() / 1e6, getRowsPerSecond(), state);
+    }
+
+    /** Writes out what is queued, stops the writer and closes the sinks */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException error = failure;
+        for (TelemetrySink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copy of the flock at one tick for the telemetry exporter. Filled by the
+ * model thread, then owned by the writer thread until it is handed back.
+ */
+public class TelemetryFrame {
+
+    /** Location, direction and visibility of each slot, like FlockState */
+    public int[] x = new int[0];
+    public int[] y = new int[0];
+    public int[] dx = new int[0];
+    public int[] dy = new int[0];
+    public boolean[] visible = new boolean[0];
+
+    /** Number of slots copied */
+    public int count = 0;
+
+    /** Tick the copy was taken at */
+    public long tick = 0;
+
+    /** Order parameters of that tick */
+    public FlockOrder order = FlockOrder.EMPTY;
+
+    /** Copies the first count slots of the state, growing the arrays if needed */
+    public void copyFrom(FlockState s, long atTick, FlockOrder atOrder) {
+        int n = s.count;
+        if (x.length < n) {
+            int size = Math.max(n, x.length * 2);
+            x = new int[size];
+            y = new int[size];
+            dx = new int[size];
+            dy = new int[size];
+            visible = new boolean[size];
+        }
+        System.arraycopy(s.x, 0, x, 0, n);
+        System.arraycopy(s.y, 0, y, 0, n);
+        System.arraycopy(s.dx, 0, dx, 0, n);
+        System.arraycopy(s.dy, 0, dy, 0, n);
+        System.arraycopy(s.visible, 0, visible, 0, n);
+        count = n;
+        tick = atTick;
+        order = atOrder;
+    }
+}
@@ -0,0 +1,16 @@
+import java.io.IOException;
+
+/** Somewhere the telemetry exporter writes frames to. Only called from the writer thread. */
+public interface TelemetrySink {
+
+    /** Writes one frame */
+    void write(TelemetryFrame frame) throws IOException;
+
+    /** Pushes out anything buffered, called after each batch */
+    void flush() throws IOException;
+
+    void close() throws IOException;
+
+    /** Bytes written so far */
+    long getBytes();
+}
@@ -0,0 +1,67 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one simulation tick. The event's own duration covers the
+ * whole tick; the fields break it down. Recorded only while a flight
+ * recording is running, e.g. java -XX:StartFlightRecording=filename=run.jfr Simulation
+ */
+@Name("flock.Tick")
+@Label("Flock Tick")
+@Category("Flock")
+@Description("One simulation tick of the flock")
+@StackTrace(false)
+public class TickEvent extends Event {
+
+    @Label("Tick")
+    long tick;
+
+    @Label("Circles")
+    int circles;
+
+    @Label("Step Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long stepTime;
+
+    @Label("Collision Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long collisionTime;
+
+    @Label("Neighbor Visits")
+    @Description("Candidate neighbors looked at during the step")
+    long neighborVisits;
+
+    @Label("Contacts")
+    @Description("Touching pairs found by the collision stage")
+    int contacts;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    @Label("Verlet Rebuilt")
+    @Description("The Verlet lists were rebuilt this tick")
+    boolean verletRebuilt;
+
+    @Label("Verlet Rebuild Rate")
+    @Description("Share of recent ticks that rebuilt the Verlet lists, 0 when they are off")
+    double verletRebuildRate;
+
+    @Label("Achieved Rate")
+    @Description("Ticks per second over the last second")
+    double achievedRate;
+
+    @Label("Target Rate")
+    @Description("Ticks per second asked for, 0 for as fast as possible")
+    double targetRate;
+
+    @Label("Quality Level")
+    @Description("Quality level set by the governor, 0 is full quality")
+    int qualityLevel;
+}
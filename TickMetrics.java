@@ -0,0 +1,180 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import jdk.jfr.EventType;
+
+/**
+ * Measures every tick of the model thread: step and collision time,
+ * neighbor visits, contacts, bytes allocated, how often the Verlet lists
+ * are rebuilt, and the tick rate achieved against the one asked for. Each tick is kept in rolling histograms and,
+ * while a flight recording is running, committed as a TickEvent.
+ *
+ * Recording is done by the model thread only. The overlay text is built
+ * there too, at redraw time, and handed to the Swing thread through a
+ * volatile field.
+ */
+public class TickMetrics {
+
+    /** Ticks kept in the histograms */
+    private static final int WINDOW = 256;
+
+    /** Time (microseconds) of the whole tick, the step, and the collision stage */
+    private final RollingHistogram tickMicros = new RollingHistogram(WINDOW);
+    private final RollingHistogram stepMicros = new RollingHistogram(WINDOW);
+    private final RollingHistogram collisionMicros = new RollingHistogram(WINDOW);
+    /** Neighbor visits and bytes allocated per tick */
+    private final RollingHistogram visits = new RollingHistogram(WINDOW);
+    private final RollingHistogram allocated = new RollingHistogram(WINDOW);
+    /** 1 for each tick that rebuilt the Verlet lists, 0 otherwise; only ticks with the lists on */
+    private final RollingHistogram rebuilds = new RollingHistogram(WINDOW);
+
+    /** Allocation of the model thread, null if the JVM can't tell */
+    private final com.sun.management.ThreadMXBean threads;
+
+    /** Tick events, checked so nothing is allocated per tick while no recording wants them */
+    private static final EventType TICK_EVENTS = EventType.getEventType(TickEvent.class);
+    /** Event of the tick in progress (null when not recording), and what was counted when it began */
+    private TickEvent event;
+    private long startNanos;
+    private long startVisits;
+    private long startBytes;
+
+    /** Ticks per second over the last full second */
+    private double achievedRate = 0;
+    private long rateWindowStart = System.nanoTime();
+    private int rateWindowTicks = 0;
+
+    private int lastContacts = 0;
+    private int lastCircles = 0;
+    /** Verlet list rebuilds counted so far, and whether the lists were on last tick */
+    private long lastRebuilds = 0;
+    private boolean verletOn = false;
+
+    /** Build the overlay text at redraw time */
+    private volatile boolean overlayShown = false;
+    /** Latest overlay text, read by the Swing thread */
+    private volatile String summary = "";
+
+    public TickMetrics() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        threads = bean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    /** Call on the model thread right before engine.tick() */
+    public void beforeTick(FlockEngine engine) {
+        if (TICK_EVENTS.isEnabled()) {
+            event = new TickEvent();
+            event.begin();
+        }
+        startNanos = System.nanoTime();
+        startVisits = engine.getKernel().getNeighborVisits();
+        startBytes = allocatedBytes();
+    }
+
+    /**
+     * Call on the model thread right after engine.tick(), with the quality
+     * level it ran at. Allocation is counted for the model thread only, pool
+     * threads are not included.
+     */
+    public void afterTick(FlockEngine engine, double targetRate, int qualityLevel) {
+        long now = System.nanoTime();
+        long tickVisits = engine.getKernel().getNeighborVisits() - startVisits;
+        long bytes = startBytes < 0 ? 0 : allocatedBytes() - startBytes;
+        lastContacts = engine.getContactCount();
+        lastCircles = engine.getState().count;
+        long rebuildsSoFar = engine.getVerlet().getRebuilds();
+        boolean rebuilt = rebuildsSoFar != lastRebuilds;
+        lastRebuilds = rebuildsSoFar;
+        verletOn = engine.getVerletSkin() > 0 && engine.getTopological() == 0;
+        if (verletOn) {
+            rebuilds.add(rebuilt ? 1 : 0);
+        }
+
+        tickMicros.add((now - startNanos) / 1000);
+        stepMicros.add(engine.getStepNanos() / 1000);
+        collisionMicros.add(engine.getCollisionNanos() / 1000);
+        visits.add(tickVisits);
+        allocated.add(bytes);
+
+        rateWindowTicks++;
+        long elapsed = now - rateWindowStart;
+        if (elapsed >= 1_000_000_000L) {
+            achievedRate = rateWindowTicks * 1e9 / elapsed;
+            rateWindowTicks = 0;
+            rateWindowStart = now;
+        }
+
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.tick = engine.getTick();
+            event.circles = lastCircles;
+            event.stepTime = engine.getStepNanos();
+            event.collisionTime = engine.getCollisionNanos();
+            event.neighborVisits = tickVisits;
+            event.contacts = lastContacts;
+            event.allocated = bytes;
+            event.verletRebuilt = verletOn && rebuilt;
+            event.verletRebuildRate = verletOn ? rebuilds.mean() : 0;
+            event.achievedRate = achievedRate;
+            event.targetRate = targetRate;
+            event.qualityLevel = qualityLevel;
+            event.commit();
+        }
+        event = null;
+    }
+
+    /** Forget the rate window, e.g. after a pause, so idle time is not counted */
+    public void resetRate() {
+        rateWindowStart = System.nanoTime();
+        rateWindowTicks = 0;
+    }
+
+    /** Ticks per second over the last full second */
+    public double getAchievedRate() {
+        return achievedRate;
+    }
+
+    /** Show or hide the overlay; the text is only built while shown */
+    public void setOverlayShown(boolean on) {overlayShown = on;}
+
+    public boolean isOverlayShown() {
+        return overlayShown;
+    }
+
+    /**
+     * Builds the overlay text from the histograms and the governor's
+     * summary, on the model thread. Does nothing while the overlay is hidden.
+     */
+    public void publish(double targetRate, long droppedTicks, FlockOrder order, String quality) {
+        if (!overlayShown) {
+            return;
+        }
+        String target = targetRate <= 0 ? "max" : String.format("%.1f", targetRate);
+        String verlet = verletOn ? String.format("   verlet rebuilds/tick %.2f", rebuilds.mean()) : "";
+        summary = String.format(
+                "circles %d   ticks/s %.1f (target %s)   dropped %d\n"
+                + "tick us    p50 %d  p99 %d  max %d\n"
+                + "step us    p50 %d  p99 %d\n"
+                + "collide us p50 %d  p99 %d\n"
+                + "neighbors/tick %.0f   contacts %d%s\n"
+                + "alloc bytes/tick %.0f\n%s\n%s",
+                lastCircles, achievedRate, target, droppedTicks,
+                tickMicros.percentile(0.5), tickMicros.percentile(0.99), tickMicros.max(),
+                stepMicros.percentile(0.5), stepMicros.percentile(0.99),
+                collisionMicros.percentile(0.5), collisionMicros.percentile(0.99),
+                visits.mean(), lastContacts, verlet, allocated.mean(), quality, order);
+    }
+
+    /** Latest overlay text, safe to read from any thread */
+    public String getSummary() {
+        return summary;
+    }
+
+    /** Bytes allocated by this thread so far, -1 if the JVM can't tell */
+    private long allocatedBytes() {
+        return threads == null ? -1 : threads.getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps the simulation on a fixed timestep and the drawing on its own rate.
+ *
+ * Tick times are planned ahead (nextTick += period) instead of sleeping a
+ * fixed amount after each tick, so time spent stepping does not make the rate
+ * drift. When the simulation falls behind it runs up to maxCatchUp ticks in a
+ * row to catch up; anything further behind is dropped and counted.
+ * A tick rate of 0 runs as fast as possible.
+ */
+public class TickScheduler {
+
+    /** Simulation ticks per second, 0 for as fast as possible */
+    private volatile double tickRate = 5;
+    /** Redraws per second */
+    private volatile double renderRate = 60;
+    /** Most ticks run back to back when behind */
+    private volatile int maxCatchUp = 5;
+
+    /** Time (System.nanoTime) of the next tick and redraw */
+    private long nextTick;
+    private long nextRender;
+
+    /** Ticks skipped because the simulation could not keep up */
+    private long droppedTicks = 0;
+
+    /** Starts planning from now, forgetting any backlog (e.g. after a pause) */
+    public void reset(long now) {
+        nextTick = now;
+        nextRender = now;
+    }
+
+    /** Number of ticks to run now, 0 if the next one is not due yet */
+    public int ticksDue(long now) {
+        double rate = tickRate;
+        if (rate <= 0) {
+            nextTick = now;
+            return 1;
+        }
+        if (now < nextTick) {
+            return 0;
+        }
+        long period = (long) (1e9 / rate);
+        long behind = (now - nextTick) / period + 1;
+        int ticks = (int) Math.min(behind, maxCatchUp);
+        if (behind > ticks) {
+            // Too far behind, give up on the rest instead of spiraling
+            droppedTicks += behind - ticks;
+            nextTick = now + period;
+        } else {
+            nextTick += ticks * period;
+        }
+        return ticks;
+    }
+
+    /** True when it is time to draw again */
+    public boolean renderDue(long now) {
+        if (now < nextRender) {
+            return false;
+        }
+        long period = (long) (1e9 / renderRate);
+        nextRender += period;
+        if (nextRender < now) {
+            nextRender = now + period;
+        }
+        return true;
+    }
+
+    /** Sleeps until the next tick or redraw is due */
+    public void waitForNext() {
+        if (tickRate <= 0) {
+            // As fast as possible, never sleep
+            return;
+        }
+        long wait = Math.min(nextTick, nextRender) - System.nanoTime();
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    /** Set simulation ticks per second, 0 (or less) for as fast as possible */
+    public void setTickRate(double rate) {tickRate = Math.max(0, rate);}
+    /** Set redraws per second */
+    public void setRenderRate(double rate) {renderRate = Math.max(1, rate);}
+    /** Set the most ticks run back to back when behind */
+    public void setMaxCatchUp(int ticks) {maxCatchUp = Math.max(1, ticks);}
+
+    public double getTickRate() {
+        return tickRate;
+    }
+
+    public double getRenderRate() {
+        return renderRate;
+    }
+
+    /** Ticks skipped so far because the simulation could not keep up */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of a trajectory recording, shared by TrajectoryRecorder and
+ * TrajectoryPlayer. All numbers are little endian.
+ *
+ * Header: magic "FLKR", version, radius, play area {x, y, w, h}, seed.
+ * Frame: type (KEY or DELTA), tick, count, then one entry per slot.
+ *   key entry:   visible byte, color varint, x, y, dx, dy
+ *   delta entry: dx - previous dx, dy - previous dy,
+ *                x - (previous x + dx), y - (previous y + dy)
+ * Signed values are zigzag varints.
+ */
+public class TrajectoryFormat {
+
+    public static final int MAGIC = 0x524B4C46; // "FLKR"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 4 + 4 + 4 + 16 + 8;
+
+    /** Frame types */
+    public static final byte KEY = 0;
+    public static final byte DELTA = 1;
+
+    /** Type, tick and count in front of each frame */
+    public static final int FRAME_HEADER_BYTES = 1 + 8 + 4;
+
+    /** Most bytes a frame of n slots can take */
+    public static long maxFrameBytes(int n) {
+        return FRAME_HEADER_BYTES + (long) n * (1 + 5 + 4 * 5);
+    }
+
+    public static void writeHeader(ByteBuffer out, FlockState s) {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(s.radius);
+        out.putInt(s.xMin);
+        out.putInt(s.yMin);
+        out.putInt(s.xMax - s.xMin + s.radius);
+        out.putInt(s.yMax - s.yMin + s.radius);
+        out.putLong(s.getSeed());
+    }
+
+    /** Reads the header into an empty flock of the recorded size and seed */
+    public static FlockState readHeader(ByteBuffer in) throws IOException {
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a flock recording");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+        int radius = in.getInt();
+        int[] bounds = {in.getInt(), in.getInt(), in.getInt(), in.getInt()};
+        FlockState s = new FlockState(0, radius, bounds);
+        s.setSeed(in.getLong());
+        return s;
+    }
+
+    public static void putVarint(ByteBuffer out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    /** Zigzag, so small negative numbers stay short too */
+    public static void putSigned(ByteBuffer out, int v) {
+        putVarint(out, (v << 1) ^ (v >> 31));
+    }
+
+    public static int getVarint(ByteBuffer in) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return v;
+    }
+
+    public static int getSigned(ByteBuffer in) {
+        int v = getVarint(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
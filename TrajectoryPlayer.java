@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a recording made by TrajectoryRecorder back into a FlockState, one
+ * frame at a time, so it can be drawn like a live flock without running
+ * the simulation. The file is mapped a region at a time. Not thread safe.
+ */
+public class TrajectoryPlayer implements AutoCloseable {
+
+    /** Size of each mapped region */
+    private static final long REGION = 64L << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer in;
+    /** File offset of the start of the mapped region */
+    private long regionStart = 0;
+    /** File offset of the next frame */
+    private long next = TrajectoryFormat.HEADER_BYTES;
+
+    /** Flock the frames are read into, sized like the recorded one */
+    private final FlockState state;
+    /** Tick of the last frame read */
+    private long tick = -1;
+    /** True once a key frame has been read, deltas before it are skipped */
+    private boolean haveKey = false;
+
+    /** Opens a recording and reads its header */
+    public TrajectoryPlayer(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        map(0, TrajectoryFormat.HEADER_BYTES);
+        state = TrajectoryFormat.readHeader(in);
+    }
+
+    /** Flock holding the last frame read */
+    public FlockState getState() {
+        return state;
+    }
+
+    /** Tick of the last frame read, -1 before the first */
+    public long getTick() {
+        return tick;
+    }
+
+    /** Reads the next frame into the state, false at the end of the recording */
+    public boolean next() throws IOException {
+        if (next + TrajectoryFormat.FRAME_HEADER_BYTES > size) {
+            return false;
+        }
+        ensure(next, TrajectoryFormat.FRAME_HEADER_BYTES);
+        byte type = in.get();
+        long frameTick = in.getLong();
+        int n = in.getInt();
+        ensure(next, Math.min(TrajectoryFormat.maxFrameBytes(n), size - next));
+        in.position((int) (next - regionStart + TrajectoryFormat.FRAME_HEADER_BYTES));
+
+        FlockState s = state;
+        if (type == TrajectoryFormat.KEY) {
+            s.ensureCapacity(n);
+            for (int i = 0; i < n; i++) {
+                s.visible[i] = in.get() != 0;
+                s.color[i] = TrajectoryFormat.getVarint(in);
+                s.x[i] = TrajectoryFormat.getSigned(in);
+                s.y[i] = TrajectoryFormat.getSigned(in);
+                s.dx[i] = TrajectoryFormat.getSigned(in);
+                s.dy[i] = TrajectoryFormat.getSigned(in);
+            }
+            s.count = n;
+            s.changes++;
+            haveKey = true;
+        } else if (haveKey) {
+            for (int i = 0; i < n; i++) {
+                s.dx[i] += TrajectoryFormat.getSigned(in);
+                s.dy[i] += TrajectoryFormat.getSigned(in);
+                s.x[i] += s.dx[i] + TrajectoryFormat.getSigned(in);
+                s.y[i] += s.dy[i] + TrajectoryFormat.getSigned(in);
+            }
+        } else {
+            // Started mid-stream, skip until a key frame
+            for (int i = 0; i < 4 * n; i++) {
+                TrajectoryFormat.getVarint(in);
+            }
+        }
+        next = regionStart + in.position();
+        tick = frameTick;
+        return true;
+    }
+
+    /** Goes back to the first frame */
+    public void rewind() {
+        next = TrajectoryFormat.HEADER_BYTES;
+        tick = -1;
+        haveKey = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in = null;
+        channel.close();
+    }
+
+    /** Maps a region starting at offset if bytes from there are not all mapped, and positions at offset */
+    private void ensure(long offset, long bytes) throws IOException {
+        if (offset < regionStart || offset + bytes > regionStart + in.limit()) {
+            map(offset, Math.min(Math.max(REGION, bytes), size - offset));
+        }
+        in.position((int) (offset - regionStart));
+    }
+
+    private void map(long start, long length) throws IOException {
+        regionStart = start;
+        in = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        in.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the flock, tick by tick, into a memory-mapped file.
+ *
+ * The file starts with a header (see TrajectoryFormat) followed by one frame
+ * per recorded tick. A key frame stores every slot in full. A delta frame
+ * stores, for each slot, the change in direction and how far the location
+ * is from where that direction would have put it, which is 0 unless the
+ * circle hit a wall. Values are zigzag varints, so a typical circle takes
+ * 4 bytes instead of 16. Key frames are written every KEY_INTERVAL ticks and
+ * whenever circles are added, removed or reset.
+ *
+ * The file is mapped a region at a time and grows as needed; close()
+ * trims it to what was written. Not thread safe, used by the model thread.
+ */
+public class TrajectoryRecorder implements AutoCloseable {
+
+    /** Ticks between key frames */
+    public static final int KEY_INTERVAL = 256;
+    /** Size of each mapped region */
+    private static final long REGION = 64L << 20;
+
+    private final FileChannel channel;
+    private MappedByteBuffer out;
+    /** File offset of the start of the mapped region */
+    private long regionStart = 0;
+
+    /** Previous frame, for the deltas */
+    private int[] prevX = new int[0];
+    private int[] prevY = new int[0];
+    private int[] prevDx = new int[0];
+    private int[] prevDy = new int[0];
+    private int prevCount = -1;
+    private int prevChanges = -1;
+    private long framesSinceKey = 0;
+
+    /** Frames written so far */
+    private long frames = 0;
+
+    /** Creates (or truncates) the file and writes the header for this flock */
+    public TrajectoryRecorder(Path file, FlockState s) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        map(0, TrajectoryFormat.HEADER_BYTES);
+        TrajectoryFormat.writeHeader(out, s);
+    }
+
+    /** Appends the current state of the flock as the frame for this tick */
+    public void record(FlockState s, long tick) throws IOException {
+        int n = s.count;
+        boolean key = n != prevCount || s.changes != prevChanges || framesSinceKey >= KEY_INTERVAL;
+        ensureRoom(TrajectoryFormat.maxFrameBytes(n));
+
+        out.put(key ? TrajectoryFormat.KEY : TrajectoryFormat.DELTA);
+        out.putLong(tick);
+        out.putInt(n);
+        if (prevX.length < n) {
+            int size = Math.max(n, prevX.length * 2);
+            prevX = new int[size];
+            prevY = new int[size];
+            prevDx = new int[size];
+            prevDy = new int[size];
+        }
+        int[] x = s.x;
+        int[] y = s.y;
+        int[] dx = s.dx;
+        int[] dy = s.dy;
+        for (int i = 0; i < n; i++) {
+            if (key) {
+                out.put((byte) (s.visible[i] ? 1 : 0));
+                TrajectoryFormat.putVarint(out, s.color[i]);
+                TrajectoryFormat.putSigned(out, x[i]);
+                TrajectoryFormat.putSigned(out, y[i]);
+                TrajectoryFormat.putSigned(out, dx[i]);
+                TrajectoryFormat.putSigned(out, dy[i]);
+            } else {
+                TrajectoryFormat.putSigned(out, dx[i] - prevDx[i]);
+                TrajectoryFormat.putSigned(out, dy[i] - prevDy[i]);
+                // Location is predicted from the new direction
+                TrajectoryFormat.putSigned(out, x[i] - (prevX[i] + dx[i]));
+                TrajectoryFormat.putSigned(out, y[i] - (prevY[i] + dy[i]));
+            }
+        }
+        System.arraycopy(x, 0, prevX, 0, n);
+        System.arraycopy(y, 0, prevY, 0, n);
+        System.arraycopy(dx, 0, prevDx, 0, n);
+        System.arraycopy(dy, 0, prevDy, 0, n);
+        prevCount = n;
+        prevChanges = s.changes;
+        framesSinceKey = key ? 1 : framesSinceKey + 1;
+        frames++;
+    }
+
+    /** Frames written so far */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** Bytes written so far, header included */
+    public long getBytes() {
+        return regionStart + out.position();
+    }
+
+    /** Trims the file to what was written and closes it */
+    @Override
+    public void close() throws IOException {
+        long length = getBytes();
+        out.force();
+        out = null;
+        channel.truncate(length);
+        channel.close();
+    }
+
+    /** Maps a new region starting at the current end of the data if the next frame might not fit */
+    private void ensureRoom(long bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            map(getBytes(), Math.max(REGION, bytes));
+        }
+    }
+
+    private void map(long start, long size) throws IOException {
+        if (out != null) {
+            out.force();
+        }
+        regionStart = start;
+        out = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        out.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Neighbor lists kept across ticks (Verlet lists).
+ *
+ * Each circle's list holds every circle within perception + skin when the
+ * lists were built. As long as no circle has moved more than skin / 2 since
+ * then, no pair can have come closer than perception without being in the
+ * lists, so the step only has to filter the lists by the current distance
+ * instead of rebuilding a grid. Lists are stored back to back:
+ * circle i's neighbors are neighbors[start[i]] .. neighbors[start[i+1]].
+ */
+public class VerletList {
+
+    /** Start of each circle's list in neighbors (one extra entry at the end) */
+    private int[] start = new int[1];
+    /** Neighbor indices of every circle, back to back */
+    private int[] neighbors = new int[0];
+
+    /** Locations when the lists were built */
+    private int[] refX = new int[0];
+    private int[] refY = new int[0];
+
+    /** What the lists were built for, any change forces a rebuild */
+    private int builtCount = -1;
+    private int builtChanges = -1;
+    private int builtPerception = -1;
+    private int builtSkin = -1;
+
+    /** Grid used while building */
+    private final SpatialGrid grid = new SpatialGrid(1);
+
+    /** Times the lists were rebuilt, and times they were checked (once per tick) */
+    private long rebuilds = 0;
+    private long checks = 0;
+
+    /**
+     * Rebuilds the lists if some circle moved more than half the skin, the
+     * flock changed, or the radius changed. Called once per tick.
+     */
+    public void update(FlockState s, int perception, int skin) {
+        checks++;
+        if (needsRebuild(s, perception, skin)) {
+            rebuild(s, perception, skin);
+        }
+    }
+
+    /** Start of circle i's list in getNeighbors() */
+    public int start(int i) {
+        return start[i];
+    }
+
+    /** One past the end of circle i's list in getNeighbors() */
+    public int end(int i) {
+        return start[i + 1];
+    }
+
+    public int[] getNeighbors() {
+        return neighbors;
+    }
+
+    /** Times the lists were rebuilt */
+    public long getRebuilds() {
+        return rebuilds;
+    }
+
+    /** Share of ticks that had to rebuild, 0 to 1 */
+    public double getRebuildRate() {
+        return checks == 0 ? 0 : (double) rebuilds / checks;
+    }
+
+    /** Average list length at the last rebuild */
+    public double getAverageLength() {
+        return builtCount <= 0 ? 0 : (double) start[builtCount] / builtCount;
+    }
+
+    private boolean needsRebuild(FlockState s, int perception, int skin) {
+        if (s.count != builtCount || s.changes != builtChanges
+                || perception != builtPerception || skin != builtSkin) {
+            return true;
+        }
+        long limitSq = (long) skin * skin / 4;
+        int[] x = s.x;
+        int[] y = s.y;
+        for (int i = 0; i < builtCount; i++) {
+            long ox = x[i] - refX[i];
+            long oy = y[i] - refY[i];
+            if (ox * ox + oy * oy > limitSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebuild(FlockState s, int perception, int skin) {
+        int n = s.count;
+        int reach = perception + skin;
+        long reachSq = (long) reach * reach;
+        grid.setCellSize(reach);
+        grid.rebuild(s.x, s.y, s.visible, n);
+
+        if (start.length < n + 1) {
+            start = new int[n + 1];
+            refX = new int[n];
+            refY = new int[n];
+        }
+        int[] x = s.x;
+        int[] y = s.y;
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            start[i] = used;
+            refX[i] = x[i];
+            refY[i] = y[i];
+            if (!s.visible[i]) {
+                continue;
+            }
+            int col = grid.column(x[i]);
+            int row = grid.row(y[i]);
+            int firstCol = Math.max(col - 1, 0);
+            int lastCol = Math.min(col + 1, grid.getColumns() - 1);
+            for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, grid.getRows() - 1); r++) {
+                int end = grid.cellEnd(lastCol, r);
+                for (int k = grid.cellStart(firstCol, r); k < end; k++) {
+                    int j = grid.item(k);
+                    long ox = x[j] - x[i];
+                    long oy = y[j] - y[i];
+                    if (j != i && ox * ox + oy * oy <= reachSq) {
+                        if (used == neighbors.length) {
+                            int[] bigger = new int[Math.max(1024, neighbors.length * 2)];
+                            System.arraycopy(neighbors, 0, bigger, 0, used);
+                            neighbors = bigger;
+                        }
+                        neighbors[used++] = j;
+                    }
+                }
+            }
+        }
+        start[n] = used;
+
+        builtCount = n;
+        builtChanges = s.changes;
+        builtPerception = perception;
+        builtSkin = skin;
+        rebuilds++;
+    }
+}
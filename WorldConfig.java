@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Size of the world and of the circles, and how fast they may turn and
+ * start out, shared by the model, the engine and the view.
+ *
+ * Loaded once at startup (or DEFAULT, the same values the GUI always used)
+ * and passed down, so nothing has to build a window to find out where the
+ * play area is. Immutable.
+ *
+ * A world file is a properties file; missing keys keep their defaults:
+ *   x=50  y=150  width=1050  height=600  radius=15  steerLimit=5  startSpeed=3
+ */
+public class WorldConfig {
+
+    /** The play area and circles the GUI has always used */
+    public static final WorldConfig DEFAULT = new WorldConfig(50, 150, 1050, 600, 15, 5, 3);
+
+    /** Play area: top left corner in the window, and size, in pixels */
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+    /** Fixed size of every circle */
+    public final int radius;
+    /** Largest change in direction per tick */
+    public final int steerLimit;
+    /** New circles start with each delta in -startSpeed .. startSpeed - 1 */
+    public final int startSpeed;
+
+    public WorldConfig(int x, int y, int width, int height, int radius, int steerLimit, int startSpeed) {
+        if (width <= radius || height <= radius || radius < 1 || steerLimit < 0 || startSpeed < 1) {
+            throw new IllegalArgumentException("Bad world: " + width + "x" + height + ", radius " + radius
+                    + ", steer limit " + steerLimit + ", start speed " + startSpeed);
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.radius = radius;
+        this.steerLimit = steerLimit;
+        this.startSpeed = startSpeed;
+    }
+
+    /** Reads a world file (see the class comment) */
+    public static WorldConfig load(Path file) throws IOException {
+        Properties p = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            p.load(reader);
+        }
+        try {
+            return new WorldConfig(
+                    get(p, "x", DEFAULT.x), get(p, "y", DEFAULT.y),
+                    get(p, "width", DEFAULT.width), get(p, "height", DEFAULT.height),
+                    get(p, "radius", DEFAULT.radius), get(p, "steerLimit", DEFAULT.steerLimit),
+                    get(p, "startSpeed", DEFAULT.startSpeed));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage());
+        }
+    }
+
+    /** Same circles and limits in a play area {x, y, w, h} */
+    public WorldConfig withBounds(int[] bounds) {
+        return new WorldConfig(bounds[0], bounds[1], bounds[2], bounds[3], radius, steerLimit, startSpeed);
+    }
+
+    /** Play area as {x, y, w, h}, a new array each call */
+    public int[] bounds() {
+        return new int[] {x, y, width, height};
+    }
+
+    private static int get(Properties p, String key, int fallback) {
+        String value = p.getProperty(key);
+        return value == null ? fallback : Integer.parseInt(value.trim());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%dx%d at (%d, %d), radius %d, steer limit %d, start speed %d",
+                width, height, x, y, radius, steerLimit, startSpeed);
+    }
+}
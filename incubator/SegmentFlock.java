@@ -0,0 +1,560 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * OffHeapFlock on the incubating Foreign Memory API of Java 17.
+ *
+ * The whole flock is one region, in native memory or mapped from a file:
+ * a 64-byte header, then one column of count little-endian ints for each of
+ * x, y, dx, dy (twice, for double-buffering), color, then one visible byte
+ * per circle. The header says which set of x, y, dx, dy is current, so a
+ * tick swaps them by flipping one int.
+ *
+ * The tick sorts the circles into a grid kept in native memory too, steps
+ * every circle with FlockKernel.stepColumns (this flock is its FlockColumns,
+ * the grid its CellGrid), then swaps the directions of touching pairs in the
+ * same order as CollisionStage, so a flock gives the same results here as
+ * in a double-buffered FlockEngine. The header also keeps the seed and the
+ * number of times the circles were randomized, like FlockState.
+ *
+ * Needs --add-modules jdk.incubator.foreign to compile and run; see the
+ * README.
+ */
+public class SegmentFlock implements OffHeapFlock, FlockColumns {
+
+    /** "FLKO" */
+    static final int MAGIC = 0x464C4B4F;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+
+    /** Header layout (byte offsets) */
+    private static final long AT_MAGIC = 0;
+    private static final long AT_VERSION = 4;
+    private static final long AT_COUNT = 8;
+    private static final long AT_RADIUS = 12;
+    private static final long AT_X_MIN = 16;
+    private static final long AT_Y_MIN = 20;
+    private static final long AT_X_MAX = 24;
+    private static final long AT_Y_MAX = 28;
+    private static final long AT_TICK = 32;
+    private static final long AT_CURRENT = 40;
+    private static final long AT_SEED = 48;
+    private static final long AT_EPOCH = 56;
+
+    /** Columns after the header, in units of 4 * count bytes */
+    private static final int X0 = 0;
+    private static final int X1 = 4;
+    private static final int COLOR = 8;
+    private static final int VISIBLE = 9;
+
+    private static final ByteOrder LE = ByteOrder.LITTLE_ENDIAN;
+
+    /** Owns the region; closing it frees or unmaps it */
+    private final ResourceScope scope;
+    private final MemorySegment region;
+    private final boolean mapped;
+
+    /** Fixed for the life of the flock, copied out of the header */
+    private final int n;
+    private final int radius;
+    private final int xMin;
+    private final int yMin;
+    private final int xMax;
+    private final int yMax;
+
+    /** Current and next locations and directions, slices of the region swapped every tick */
+    private MemorySegment x;
+    private MemorySegment y;
+    private MemorySegment dx;
+    private MemorySegment dy;
+    private MemorySegment nextX;
+    private MemorySegment nextY;
+    private MemorySegment nextDx;
+    private MemorySegment nextDy;
+    private final MemorySegment color;
+    private final MemorySegment visible;
+
+    /** Grid for neighbors (cells perception wide) and for contacts (one diameter wide) */
+    private final Grid neighbors = new Grid();
+    private final Grid contacts = new Grid();
+
+    private SegmentFlock(ResourceScope scope, MemorySegment region, boolean mapped) {
+        this.scope = scope;
+        this.region = region;
+        this.mapped = mapped;
+        n = MemoryAccess.getIntAtOffset(region, AT_COUNT, LE);
+        radius = MemoryAccess.getIntAtOffset(region, AT_RADIUS, LE);
+        xMin = MemoryAccess.getIntAtOffset(region, AT_X_MIN, LE);
+        yMin = MemoryAccess.getIntAtOffset(region, AT_Y_MIN, LE);
+        xMax = MemoryAccess.getIntAtOffset(region, AT_X_MAX, LE);
+        yMax = MemoryAccess.getIntAtOffset(region, AT_Y_MAX, LE);
+        color = column(COLOR);
+        visible = region.asSlice(HEADER_BYTES + 4L * n * VISIBLE, n);
+        pickCurrent();
+    }
+
+    /** Copies an on-heap flock into native memory, or into a new mapped file when file is not null */
+    public static SegmentFlock copyOf(FlockState s, Path file) throws IOException {
+        SegmentFlock flock = create(s.count, s.radius, s.xMin, s.yMin, s.xMax, s.yMax, file);
+        MemoryAccess.setLongAtOffset(flock.region, AT_SEED, LE, s.getSeed());
+        MemoryAccess.setLongAtOffset(flock.region, AT_EPOCH, LE, s.getEpoch());
+        for (int i = 0; i < s.count; i++) {
+            set(flock.x, i, s.x[i]);
+            set(flock.y, i, s.y[i]);
+            set(flock.dx, i, s.dx[i]);
+            set(flock.dy, i, s.dy[i]);
+            set(flock.color, i, s.color[i]);
+            MemoryAccess.setByteAtOffset(flock.visible, i, (byte) (s.visible[i] ? 1 : 0));
+        }
+        return flock;
+    }
+
+    /** n random circles, drawn the same way as FlockState.setCount(n) after setSeed(seed) */
+    public static SegmentFlock random(int n, WorldConfig world, long seed, Path file) throws IOException {
+        int xMax = world.x + world.width - world.radius;
+        int yMax = world.y + world.height - world.radius;
+        SegmentFlock flock = create(n, world.radius, world.x, world.y, xMax, yMax, file);
+        // Randomizing bumps the epoch first, as in FlockState.setCount
+        long epoch = MemoryAccess.getLongAtOffset(flock.region, AT_EPOCH, LE) + 1;
+        MemoryAccess.setLongAtOffset(flock.region, AT_SEED, LE, seed);
+        MemoryAccess.setLongAtOffset(flock.region, AT_EPOCH, LE, epoch);
+        FlockState.CircleSink sink = (i, px, py, pdx, pdy, rgb) -> {
+            set(flock.x, i, px);
+            set(flock.y, i, py);
+            set(flock.dx, i, pdx);
+            set(flock.dy, i, pdy);
+            set(flock.color, i, rgb);
+            MemoryAccess.setByteAtOffset(flock.visible, i, (byte) 1);
+        };
+        for (int i = 0; i < n; i++) {
+            FlockState.randomize(seed, epoch, i, world.x, world.y, xMax, yMax, world.startSpeed, sink);
+        }
+        return flock;
+    }
+
+    /** Maps a file written by a mapped flock or by snapshot() */
+    public static SegmentFlock open(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size < HEADER_BYTES) {
+            throw new IOException(file + " is too short for an off-heap flock");
+        }
+        ResourceScope scope = ResourceScope.newSharedScope();
+        try {
+            MemorySegment region = MemorySegment.mapFile(file, 0, size, FileChannel.MapMode.READ_WRITE, scope);
+            if (MemoryAccess.getIntAtOffset(region, AT_MAGIC, LE) != MAGIC) {
+                throw new IOException(file + " is not an off-heap flock");
+            }
+            int version = MemoryAccess.getIntAtOffset(region, AT_VERSION, LE);
+            if (version != VERSION) {
+                throw new IOException(file + " has version " + version + ", expected " + VERSION);
+            }
+            long n = MemoryAccess.getIntAtOffset(region, AT_COUNT, LE);
+            if (n < 0 || size != bytesFor(n)) {
+                throw new IOException(file + " holds " + size + " bytes, " + n + " circles need " + bytesFor(n));
+            }
+            return new SegmentFlock(scope, region, true);
+        } catch (IOException | RuntimeException e) {
+            scope.close();
+            throw e;
+        }
+    }
+
+    /** New region with its header filled in, mapped to a new file when file is not null */
+    private static SegmentFlock create(int n, int radius, int xMin, int yMin, int xMax, int yMax, Path file)
+            throws IOException {
+        ResourceScope scope = ResourceScope.newSharedScope();
+        try {
+            MemorySegment region;
+            if (file == null) {
+                region = MemorySegment.allocateNative(bytesFor(n), 64, scope);
+            } else {
+                Files.deleteIfExists(file);
+                Files.createFile(file);
+                region = MemorySegment.mapFile(file, 0, bytesFor(n), FileChannel.MapMode.READ_WRITE, scope);
+            }
+            region.asSlice(0, HEADER_BYTES).fill((byte) 0);
+            MemoryAccess.setIntAtOffset(region, AT_MAGIC, LE, MAGIC);
+            MemoryAccess.setIntAtOffset(region, AT_VERSION, LE, VERSION);
+            MemoryAccess.setIntAtOffset(region, AT_COUNT, LE, n);
+            MemoryAccess.setIntAtOffset(region, AT_RADIUS, LE, radius);
+            MemoryAccess.setIntAtOffset(region, AT_X_MIN, LE, xMin);
+            MemoryAccess.setIntAtOffset(region, AT_Y_MIN, LE, yMin);
+            MemoryAccess.setIntAtOffset(region, AT_X_MAX, LE, xMax);
+            MemoryAccess.setIntAtOffset(region, AT_Y_MAX, LE, yMax);
+            return new SegmentFlock(scope, region, file != null);
+        } catch (IOException | RuntimeException e) {
+            scope.close();
+            throw e;
+        }
+    }
+
+    /** Header plus 9 int columns and 1 byte column */
+    private static long bytesFor(long n) {
+        return HEADER_BYTES + 37 * n;
+    }
+
+    @Override
+    public void tick(FlockKernel rules) {
+        // Every circle reads this tick and writes the next, in grid order
+        rules.resetOrder();
+        rules.setTick(getTick());
+        neighbors.rebuild(rules.getPerception());
+        rules.stepColumns(this, neighbors, 0, neighbors.size());
+        for (int i = 0; i < n; i++) {
+            if (MemoryAccess.getByteAtOffset(visible, i) == 0) {
+                set(nextX, i, get(x, i));
+                set(nextY, i, get(y, i));
+                set(nextDx, i, get(dx, i));
+                set(nextDy, i, get(dy, i));
+            }
+        }
+        MemoryAccess.setIntAtOffset(region, AT_CURRENT, LE, 1 - MemoryAccess.getIntAtOffset(region, AT_CURRENT, LE));
+        pickCurrent();
+
+        collide();
+        MemoryAccess.setLongAtOffset(region, AT_TICK, LE, getTick() + 1);
+    }
+
+    /**
+     * Swaps the directions of touching pairs, visiting pairs in the same
+     * order as CollisionStage (each cell with itself, its right neighbor and
+     * the 3 below). Finding a pair only reads locations, so swapping as they
+     * are found gives the same result as collecting them first.
+     */
+    private void collide() {
+        long touching = 2L * radius;
+        long touchingSq = touching * touching;
+        Grid grid = contacts;
+        grid.rebuild(2 * radius);
+        int cols = grid.cols;
+        int rows = grid.rows;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int start = grid.cellStart(col, row);
+                int end = grid.cellEnd(col, row);
+                for (int a = start; a < end; a++) {
+                    int i = grid.item(a);
+                    for (int b = a + 1; b < end; b++) {
+                        touch(i, grid.item(b), touchingSq);
+                    }
+                    if (col + 1 < cols) {
+                        touchCell(i, col + 1, row, touchingSq);
+                    }
+                    if (row + 1 < rows) {
+                        if (col > 0) {
+                            touchCell(i, col - 1, row + 1, touchingSq);
+                        }
+                        touchCell(i, col, row + 1, touchingSq);
+                        if (col + 1 < cols) {
+                            touchCell(i, col + 1, row + 1, touchingSq);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void touchCell(int i, int col, int row, long touchingSq) {
+        int end = contacts.cellEnd(col, row);
+        for (int b = contacts.cellStart(col, row); b < end; b++) {
+            touch(i, contacts.item(b), touchingSq);
+        }
+    }
+
+    private void touch(int i, int j, long touchingSq) {
+        long ox = get(x, i) - get(x, j);
+        long oy = get(y, i) - get(y, j);
+        if (ox * ox + oy * oy < touchingSq) {
+            int tx = get(dx, i);
+            int ty = get(dy, i);
+            set(dx, i, get(dx, j));
+            set(dy, i, get(dy, j));
+            set(dx, j, tx);
+            set(dy, j, ty);
+        }
+    }
+
+    @Override
+    public int count() {
+        return n;
+    }
+
+    @Override
+    public long getTick() {
+        return MemoryAccess.getLongAtOffset(region, AT_TICK, LE);
+    }
+
+    @Override
+    public long byteSize() {
+        return region.byteSize();
+    }
+
+    @Override
+    public void copyTo(FlockState s) {
+        s.ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            s.x[i] = get(x, i);
+            s.y[i] = get(y, i);
+            s.dx[i] = get(dx, i);
+            s.dy[i] = get(dy, i);
+            s.color[i] = get(color, i);
+            s.visible[i] = MemoryAccess.getByteAtOffset(visible, i) != 0;
+        }
+        for (int i = n; i < s.count; i++) {
+            s.visible[i] = false;
+        }
+        s.count = n;
+        s.changes++;
+        s.setRandomState(MemoryAccess.getLongAtOffset(region, AT_SEED, LE), MemoryAccess.getLongAtOffset(region, AT_EPOCH, LE));
+    }
+
+    @Override
+    public int radius() {
+        return radius;
+    }
+
+    @Override
+    public int xMin() {
+        return xMin;
+    }
+
+    @Override
+    public int yMin() {
+        return yMin;
+    }
+
+    @Override
+    public int xMax() {
+        return xMax;
+    }
+
+    @Override
+    public int yMax() {
+        return yMax;
+    }
+
+    @Override
+    public int x(int i) {
+        return get(x, i);
+    }
+
+    @Override
+    public int y(int i) {
+        return get(y, i);
+    }
+
+    @Override
+    public int dx(int i) {
+        return get(dx, i);
+    }
+
+    @Override
+    public int dy(int i) {
+        return get(dy, i);
+    }
+
+    @Override
+    public boolean visible(int i) {
+        return MemoryAccess.getByteAtOffset(visible, i) != 0;
+    }
+
+    /** Writes the next set of columns, made current when the tick swaps them */
+    @Override
+    public void setNext(int i, int px, int py, int pdx, int pdy) {
+        set(nextX, i, px);
+        set(nextY, i, py);
+        set(nextDx, i, pdx);
+        set(nextDy, i, pdy);
+    }
+
+    @Override
+    public void force() {
+        if (mapped) {
+            region.force();
+        }
+    }
+
+    @Override
+    public void snapshot(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.createFile(file);
+        try (ResourceScope target = ResourceScope.newConfinedScope()) {
+            MemorySegment copy = MemorySegment.mapFile(file, 0, region.byteSize(), FileChannel.MapMode.READ_WRITE, target);
+            copy.copyFrom(region);
+            copy.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        neighbors.close();
+        contacts.close();
+        scope.close();
+    }
+
+    /** Column c (see X0 ..) as its own segment */
+    private MemorySegment column(int c) {
+        return region.asSlice(HEADER_BYTES + 4L * n * c, 4L * n);
+    }
+
+    /** Points x, y, dx, dy at the set the header says is current */
+    private void pickCurrent() {
+        boolean first = MemoryAccess.getIntAtOffset(region, AT_CURRENT, LE) == 0;
+        int current = first ? X0 : X1;
+        int next = first ? X1 : X0;
+        x = column(current);
+        y = column(current + 1);
+        dx = column(current + 2);
+        dy = column(current + 3);
+        nextX = column(next);
+        nextY = column(next + 1);
+        nextDx = column(next + 2);
+        nextDy = column(next + 3);
+    }
+
+    private static int get(MemorySegment column, int i) {
+        return MemoryAccess.getIntAtIndex(column, i, LE);
+    }
+
+    private static void set(MemorySegment column, int i, int value) {
+        MemoryAccess.setIntAtIndex(column, i, LE, value);
+    }
+
+    /**
+     * Same counting-sort grid as SpatialGrid, over the current locations of
+     * the visible circles, with its arrays in native memory. Grows by
+     * doubling and frees what it outgrew.
+     */
+    private class Grid implements CellGrid {
+        private int cellSize = 1;
+        private int originX;
+        private int originY;
+        private int cols = 1;
+        private int rows = 1;
+
+        /** Owns the three arrays below, replaced when they grow */
+        private ResourceScope arrays = ResourceScope.newSharedScope();
+        private MemorySegment cellStart = MemorySegment.allocateNative(8, arrays);
+        private MemorySegment items = MemorySegment.allocateNative(4, arrays);
+        private MemorySegment cellOf = MemorySegment.allocateNative(4, arrays);
+
+        void rebuild(int size) {
+            cellSize = Math.max(1, size);
+            int minX = Integer.MAX_VALUE;
+            int minY = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE;
+            int maxY = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                if (MemoryAccess.getByteAtOffset(visible, i) != 0) {
+                    int xi = get(x, i);
+                    int yi = get(y, i);
+                    minX = Math.min(minX, xi);
+                    minY = Math.min(minY, yi);
+                    maxX = Math.max(maxX, xi);
+                    maxY = Math.max(maxY, yi);
+                }
+            }
+            if (minX > maxX) {
+                minX = maxX = minY = maxY = 0;
+            }
+            originX = minX;
+            originY = minY;
+            cols = (maxX - minX) / cellSize + 1;
+            rows = (maxY - minY) / cellSize + 1;
+            int cells = cols * rows;
+            ensureCapacity(cells + 1L);
+            cellStart.asSlice(0, 4L * (cells + 1)).fill((byte) 0);
+
+            // Count circles per cell, turn counts into starts, drop each circle in its slot
+            for (int i = 0; i < n; i++) {
+                if (MemoryAccess.getByteAtOffset(visible, i) != 0) {
+                    int cell = row(get(y, i)) * cols + column(get(x, i));
+                    set(cellOf, i, cell);
+                    set(cellStart, cell + 1, get(cellStart, cell + 1) + 1);
+                } else {
+                    set(cellOf, i, -1);
+                }
+            }
+            for (int c = 0; c < cells; c++) {
+                set(cellStart, c + 1, get(cellStart, c + 1) + get(cellStart, c));
+            }
+            for (int i = 0; i < n; i++) {
+                int cell = get(cellOf, i);
+                if (cell >= 0) {
+                    int slot = get(cellStart, cell);
+                    set(items, slot, i);
+                    set(cellStart, cell, slot + 1);
+                }
+            }
+            for (int c = cells; c > 0; c--) {
+                set(cellStart, c, get(cellStart, c - 1));
+            }
+            set(cellStart, 0, 0);
+        }
+
+        @Override
+        public int column(int px) {
+            int cx = (px - originX) / cellSize;
+            return cx < 0 ? 0 : (cx >= cols ? cols - 1 : cx);
+        }
+
+        @Override
+        public int row(int py) {
+            int cy = (py - originY) / cellSize;
+            return cy < 0 ? 0 : (cy >= rows ? rows - 1 : cy);
+        }
+
+        @Override
+        public int getColumns() {
+            return cols;
+        }
+
+        @Override
+        public int getRows() {
+            return rows;
+        }
+
+        @Override
+        public int cellStart(int col, int row) {
+            return get(cellStart, row * cols + col);
+        }
+
+        @Override
+        public int cellEnd(int col, int row) {
+            return get(cellStart, row * cols + col + 1);
+        }
+
+        int size() {
+            return get(cellStart, cols * rows);
+        }
+
+        @Override
+        public int item(int k) {
+            return get(items, k);
+        }
+
+        private void ensureCapacity(long starts) {
+            long itemBytes = 4L * Math.max(1, n);
+            if (cellStart.byteSize() >= 4 * starts && items.byteSize() >= itemBytes) {
+                return;
+            }
+            long startBytes = Math.max(4 * starts, Math.min(2 * cellStart.byteSize(), 4L * Integer.MAX_VALUE));
+            ResourceScope grown = ResourceScope.newSharedScope();
+            cellStart = MemorySegment.allocateNative(startBytes, grown);
+            items = MemorySegment.allocateNative(itemBytes, grown);
+            cellOf = MemorySegment.allocateNative(itemBytes, grown);
+            arrays.close();
+            arrays = grown;
+        }
+
+        void close() {
+            arrays.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD version of NeighborKernel using the incubating Vector API.
+ *
+ * Loads as many candidates as the CPU has int lanes (8 on AVX2, 16 on
+ * AVX-512), compares squared distances in all lanes at once and adds the
+ * flocking terms with masks for "in range" and "touching", keeping the
+ * smallest in-range distance per lane. The last partial load is masked
+ * with indexInRange.
+ *
+ * Needs --add-modules jdk.incubator.vector to compile and run; see the
+ * README. NeighborKernel.select() falls back to ScalarNeighborKernel when it
+ * is missing.
+ */
+public class VectorNeighborKernel implements NeighborKernel {
+
+    private static final VectorSpecies<Integer> S = IntVector.SPECIES_PREFERRED;
+
+    /** 0, 1, 2, ... one per lane, to find the circle's own lane */
+    private static final IntVector IOTA = IntVector.zero(S).addIndex(1);
+
+    @Override
+    public void accumulate(int[] x, int[] y, int[] dx, int[] dy, int from, int to, int self,
+            int xi, int yi, int perceptionSq, int touchingSq, long[] sums) {
+        IntVector sepX = IntVector.zero(S);
+        IntVector sepY = IntVector.zero(S);
+        IntVector alignX = IntVector.zero(S);
+        IntVector alignY = IntVector.zero(S);
+        IntVector cohX = IntVector.zero(S);
+        IntVector cohY = IntVector.zero(S);
+        int inRange = 0;
+        int touching = 0;
+
+        IntVector zero = IntVector.zero(S);
+        IntVector far = IntVector.broadcast(S, Integer.MAX_VALUE);
+        IntVector nearest = far;
+        int bound = from + S.loopBound(to - from);
+        int k = from;
+        for (; k < bound; k += S.length()) {
+            // Full loads, no lane mask needed
+            IntVector ox = IntVector.fromArray(S, x, k).sub(xi);
+            IntVector oy = IntVector.fromArray(S, y, k).sub(yi);
+            IntVector distanceSq = ox.mul(ox).add(oy.mul(oy));
+
+            VectorMask<Integer> near = distanceSq.compare(VectorOperators.LE, perceptionSq);
+            if (self >= k && self < k + S.length()) {
+                near = near.andNot(IOTA.compare(VectorOperators.EQ, self - k));
+            }
+            VectorMask<Integer> touch = near.and(distanceSq.compare(VectorOperators.LT, touchingSq));
+
+            sepX = sepX.sub(zero.blend(ox, touch));
+            sepY = sepY.sub(zero.blend(oy, touch));
+            alignX = alignX.add(zero.blend(IntVector.fromArray(S, dx, k), near));
+            alignY = alignY.add(zero.blend(IntVector.fromArray(S, dy, k), near));
+            cohX = cohX.add(zero.blend(ox, near));
+            cohY = cohY.add(zero.blend(oy, near));
+            nearest = nearest.min(far.blend(distanceSq, near));
+            inRange += near.trueCount();
+            touching += touch.trueCount();
+        }
+        if (k < to) {
+            // Last partial load, lanes past the end are masked off
+            VectorMask<Integer> lanes = S.indexInRange(k, to);
+            IntVector ox = IntVector.fromArray(S, x, k, lanes).sub(xi);
+            IntVector oy = IntVector.fromArray(S, y, k, lanes).sub(yi);
+            IntVector distanceSq = ox.mul(ox).add(oy.mul(oy));
+
+            VectorMask<Integer> near = lanes.and(distanceSq.compare(VectorOperators.LE, perceptionSq));
+            if (self >= k && self < k + S.length()) {
+                near = near.andNot(IOTA.compare(VectorOperators.EQ, self - k));
+            }
+            VectorMask<Integer> touch = near.and(distanceSq.compare(VectorOperators.LT, touchingSq));
+
+            sepX = sepX.sub(zero.blend(ox, touch));
+            sepY = sepY.sub(zero.blend(oy, touch));
+            alignX = alignX.add(zero.blend(IntVector.fromArray(S, dx, k, lanes), near));
+            alignY = alignY.add(zero.blend(IntVector.fromArray(S, dy, k, lanes), near));
+            cohX = cohX.add(zero.blend(ox, near));
+            cohY = cohY.add(zero.blend(oy, near));
+            nearest = nearest.min(far.blend(distanceSq, near));
+            inRange += near.trueCount();
+            touching += touch.trueCount();
+        }
+
+        sums[SEP_X] += sepX.reduceLanesToLong(VectorOperators.ADD);
+        sums[SEP_Y] += sepY.reduceLanesToLong(VectorOperators.ADD);
+        sums[ALIGN_X] += alignX.reduceLanesToLong(VectorOperators.ADD);
+        sums[ALIGN_Y] += alignY.reduceLanesToLong(VectorOperators.ADD);
+        sums[COH_X] += cohX.reduceLanesToLong(VectorOperators.ADD);
+        sums[COH_Y] += cohY.reduceLanesToLong(VectorOperators.ADD);
+        sums[IN_RANGE] += inRange;
+        sums[TOUCHING] += touching;
+        int closest = nearest.reduceLanes(VectorOperators.MIN);
+        if (closest != Integer.MAX_VALUE) {
+            sums[NEAREST_SQ] = Math.min(sums[NEAREST_SQ], closest);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector" + S.length();
+    }
+}
@@ -0,0 +1,117 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Turns JMH's JSON results into one CSV row per case, and flags cases more
+ * than 10% slower than in a baseline CSV from an earlier run.
+ *
+ * Usage: BenchmarkReport results.json [--out results.csv] [--baseline old.csv]
+ */
+public class BenchmarkReport {
+
+    /** Slower than the baseline by more than this is a regression */
+    private static final double REGRESSION = 1.10;
+
+    private static final String HEADER = "benchmark,population,regime,mode,ms/op,bytes/op,gcCount,gcMs";
+
+    public static void main(String[] args) throws IOException {
+        String out = null;
+        String baseline = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--out") && i + 1 < args.length) {
+                out = args[++i];
+            } else if (args[i].equals("--baseline") && i + 1 < args.length) {
+                baseline = args[++i];
+            }
+        }
+        List<String> rows = new ArrayList<>();
+        try (Reader reader = new FileReader(args[0])) {
+            for (JsonElement result : JsonParser.parseReader(reader).getAsJsonArray()) {
+                rows.add(row(result.getAsJsonObject()));
+            }
+        }
+        System.out.println(HEADER);
+        rows.forEach(System.out::println);
+        if (out != null) {
+            try (PrintWriter writer = new PrintWriter(new FileWriter(out))) {
+                writer.println(HEADER);
+                rows.forEach(writer::println);
+            }
+        }
+        if (baseline != null) {
+            compare(rows, baseline);
+        }
+    }
+
+    /** One result as benchmark,population,regime,mode,ms/op,bytes/op,gcCount,gcMs */
+    private static String row(JsonObject result) {
+        String benchmark = result.get("benchmark").getAsString();
+        benchmark = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+        JsonObject params = result.has("params") ? result.getAsJsonObject("params") : new JsonObject();
+        String regime = params.has("obstacles") ? "obstacles=" + params.get("obstacles").getAsString()
+                : param(params, "regime", "default");
+        Map<String, Double> gc = new HashMap<>();
+        if (result.has("secondaryMetrics")) {
+            for (Map.Entry<String, JsonElement> metric : result.getAsJsonObject("secondaryMetrics").entrySet()) {
+                // JMH names the profiler's metrics with a leading "·"
+                int at = metric.getKey().indexOf("gc.");
+                if (at >= 0) {
+                    gc.put(metric.getKey().substring(at), metric.getValue().getAsJsonObject().get("score").getAsDouble());
+                }
+            }
+        }
+        return String.format("%s,%s,%s,%s,%.4f,%d,%d,%d", benchmark, param(params, "n", "-"), regime,
+                param(params, "mode", "-"), result.getAsJsonObject("primaryMetric").get("score").getAsDouble(),
+                Math.round(gc.getOrDefault("gc.alloc.rate.norm", -1.0)),
+                Math.round(gc.getOrDefault("gc.count", 0.0)), Math.round(gc.getOrDefault("gc.time", 0.0)));
+    }
+
+    private static String param(JsonObject params, String name, String missing) {
+        return params.has(name) ? params.get(name).getAsString() : missing;
+    }
+
+    /** Flags every case more than 10% slower than in the baseline file */
+    private static void compare(List<String> rows, String baseline) throws IOException {
+        Map<String, Double> before = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(baseline))) {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split(",");
+                before.put(f[0] + "," + f[1] + "," + f[2] + "," + f[3], Double.parseDouble(f[4]));
+            }
+        }
+        int regressions = 0;
+        System.out.println();
+        System.out.println("case,baseline ms/op,ms/op,ratio");
+        for (String row : rows) {
+            String[] f = row.split(",");
+            String key = f[0] + "," + f[1] + "," + f[2] + "," + f[3];
+            Double old = before.get(key);
+            if (old == null || old <= 0) {
+                continue;
+            }
+            double ratio = Double.parseDouble(f[4]) / old;
+            String flag = ratio > REGRESSION ? "  REGRESSION" : "";
+            if (ratio > REGRESSION) {
+                regressions++;
+            }
+            System.out.printf("%s,%.4f,%s,%.2f%s%n", key, old, f[4], ratio, flag);
+        }
+        System.out.println(regressions + " regression(s)");
+    }
+}
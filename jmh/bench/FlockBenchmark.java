@@ -0,0 +1,229 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the tick, collision and render paths, over population,
+ * parameter regime and engine mode.
+ *
+ * The cases themselves are in BenchmarkCases, next to the simulation. Each
+ * is built once per fork and put back to its seeded start before every
+ * iteration, in place, so iterations measure the same work and building a
+ * flock does not count towards the GC profiler's bytes per operation. Run
+ * with mvn -P jmh verify, see the README.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlockBenchmark {
+
+    /** Every size and mode, in one regime (pass -p regime=... for the others) */
+    @State(Scope.Thread)
+    public static class Tick extends Case {
+        @Param({"100", "1000", "10000", "100000", "1000000"})
+        public int n;
+        @Param({"default"})
+        public String regime;
+        @Param({"inPlace", "doubleBuffered", "doubleBufferedScalar", "parallel", "verlet", "topological", "offHeap"})
+        public String mode;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            op = prepare("tick", n, regime, mode);
+        }
+    }
+
+    /** Every regime and mode at one size */
+    @State(Scope.Thread)
+    public static class Regimes extends Case {
+        @Param({"10000"})
+        public int n;
+        @Param({"highCohesion", "lowCohesion", "highSeparation", "lowSeparation", "highAlignment", "lowAlignment"})
+        public String regime;
+        @Param({"inPlace", "doubleBuffered", "doubleBufferedScalar", "parallel", "verlet", "topological"})
+        public String mode;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            op = prepare("tick", n, regime, mode);
+        }
+    }
+
+    /** Uneven density, grid against tree */
+    @State(Scope.Thread)
+    public static class Clumped extends Case {
+        @Param({"1000", "10000", "100000"})
+        public int n;
+        @Param({"doubleBuffered", "topological"})
+        public String mode;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            op = prepare("clumped", n, mode);
+        }
+    }
+
+    /** Avoidance cost against the number of obstacles */
+    @State(Scope.Thread)
+    public static class Obstacles extends Case {
+        @Param({"10000"})
+        public int n;
+        @Param({"0", "1", "10", "100", "1000", "10000"})
+        public int obstacles;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            op = prepare("obstacles", n, obstacles);
+        }
+    }
+
+    /** Building a model and its flock, no window needed */
+    @State(Scope.Thread)
+    public static class Startup extends Case {
+        @Param({"1000", "100000", "1000000"})
+        public int n;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            op = prepare("startup", n);
+        }
+    }
+
+    /** Collision stage alone */
+    @State(Scope.Thread)
+    public static class Collision extends Case {
+        @Param({"100", "1000", "10000", "100000", "1000000"})
+        public int n;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            op = prepare("collision", n);
+        }
+    }
+
+    /** Publishing and drawing a frame the size of the world, off screen */
+    @State(Scope.Thread)
+    public static class Render extends Case {
+        @Param({"100", "1000", "10000"})
+        public int n;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            op = prepare("render", n);
+        }
+    }
+
+    /** Frame time in the GUI's play area, with and without the heatmap */
+    @State(Scope.Thread)
+    public static class Lod extends Case {
+        @Param({"10000", "100000", "1000000"})
+        public int n;
+        @Param({"circles", "heatmap", "zoomed"})
+        public String mode;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            op = prepare("lod", n, mode);
+        }
+    }
+
+    @Benchmark
+    public long tick(Tick c) {
+        return c.op.getAsLong();
+    }
+
+    @Benchmark
+    public long regimes(Regimes c) {
+        return c.op.getAsLong();
+    }
+
+    @Benchmark
+    public long clumped(Clumped c) {
+        return c.op.getAsLong();
+    }
+
+    @Benchmark
+    public long obstacles(Obstacles c) {
+        return c.op.getAsLong();
+    }
+
+    @Benchmark
+    public long startup(Startup c) {
+        return c.op.getAsLong();
+    }
+
+    @Benchmark
+    public long collision(Collision c) {
+        return c.op.getAsLong();
+    }
+
+    @Benchmark
+    public long render(Render c) {
+        return c.op.getAsLong();
+    }
+
+    @Benchmark
+    public long lod(Lod c) {
+        return c.op.getAsLong();
+    }
+
+    /** The operation of one case, put back to its start before each iteration */
+    public abstract static class Case {
+        LongSupplier op;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            ((Runnable) op).run();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            if (op instanceof AutoCloseable) {
+                ((AutoCloseable) op).close();
+            }
+            op = null;
+        }
+    }
+
+    /**
+     * Calls the BenchmarkCases method of that name. BenchmarkCases is in the
+     * default package, which Java code in a named package can only reach by
+     * reflection.
+     */
+    static LongSupplier prepare(String name, Object... args) {
+        try {
+            for (Method method : Class.forName("BenchmarkCases").getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                    return (LongSupplier) method.invoke(null, args);
+                }
+            }
+            throw new IllegalArgumentException("no case " + name + " with " + args.length + " arguments");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FlockCheckpointTest {
+
+    @TempDir
+    Path dir;
+
+    /** A seeded flock of n circles that has run a few ticks */
+    private static FlockEngine engine(int n) {
+        FlockState state = new FlockState(n, WorldConfig.DEFAULT);
+        state.setSeed(42);
+        state.setCount(n);
+        FlockEngine engine = new FlockEngine(state);
+        engine.setDoubleBuffered(true);
+        for (int t = 0; t < 5; t++) {
+            engine.tick();
+        }
+        return engine;
+    }
+
+    private static void assertSameFlock(FlockEngine expected, FlockEngine actual) {
+        FlockState a = expected.getState();
+        FlockState b = actual.getState();
+        int n = a.count;
+        assertEquals(n, b.count);
+        assertArrayEquals(Arrays.copyOf(a.x, n), Arrays.copyOf(b.x, n));
+        assertArrayEquals(Arrays.copyOf(a.y, n), Arrays.copyOf(b.y, n));
+        assertArrayEquals(Arrays.copyOf(a.dx, n), Arrays.copyOf(b.dx, n));
+        assertArrayEquals(Arrays.copyOf(a.dy, n), Arrays.copyOf(b.dy, n));
+        assertArrayEquals(Arrays.copyOf(a.color, n), Arrays.copyOf(b.color, n));
+        assertEquals(expected.getTick(), actual.getTick());
+        assertEquals(expected.getKernel().getCoStr(), actual.getKernel().getCoStr());
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        FlockEngine saved = engine(500);
+        saved.setTopological(7);
+        saved.getKernel().setCoStr(30);
+        Path file = dir.resolve("flock.ckpt");
+        FlockCheckpoint.save(file, saved);
+
+        FlockEngine loaded = new FlockEngine(new FlockState(10, WorldConfig.DEFAULT));
+        FlockCheckpoint.load(file, loaded);
+        assertSameFlock(saved, loaded);
+        assertEquals(7, loaded.getTopological());
+    }
+
+    @Test
+    void loadsVersion1() throws IOException {
+        FlockEngine saved = engine(500);
+        saved.getKernel().setCoStr(30);
+        Path file = dir.resolve("flock.ckpt");
+        FlockCheckpoint.save(file, saved);
+        Path old = dir.resolve("old.ckpt");
+        Files.write(old, toVersion1(Files.readAllBytes(file)));
+
+        FlockEngine loaded = new FlockEngine(new FlockState(10, WorldConfig.DEFAULT));
+        loaded.setTopological(7);
+        FlockCheckpoint.load(old, loaded);
+        assertSameFlock(saved, loaded);
+        assertEquals(0, loaded.getTopological());
+
+        // Both go on to tick the same way
+        saved.tick();
+        loaded.tick();
+        assertSameFlock(saved, loaded);
+    }
+
+    @Test
+    void rejectsUnknownVersion() throws IOException {
+        Path file = dir.resolve("flock.ckpt");
+        FlockCheckpoint.save(file, engine(10));
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 3);
+        Files.write(file, bytes);
+        FlockEngine engine = new FlockEngine(new FlockState(10, WorldConfig.DEFAULT));
+        assertThrows(IOException.class, () -> FlockCheckpoint.load(file, engine));
+    }
+
+    @Test
+    void failedLoadLeavesFlockAlone() throws IOException {
+        Path file = dir.resolve("flock.ckpt");
+        FlockCheckpoint.save(file, engine(500));
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 100));
+        FlockEngine engine = engine(300);
+        FlockEngine untouched = engine(300);
+        assertThrows(IOException.class, () -> FlockCheckpoint.load(file, engine));
+        assertSameFlock(untouched, engine);
+    }
+
+    /** The same checkpoint as version 1 wrote it: 93 byte header, no topological k at its end */
+    private static byte[] toVersion1(byte[] v2) {
+        ByteBuffer header = ByteBuffer.wrap(v2).order(ByteOrder.LITTLE_ENDIAN);
+        int headerBytes = header.getInt(8);
+        byte[] v1 = new byte[v2.length - 4];
+        System.arraycopy(v2, 0, v1, 0, headerBytes - 4);
+        System.arraycopy(v2, headerBytes, v1, headerBytes - 4, v2.length - headerBytes);
+        ByteBuffer.wrap(v1).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 1).putInt(8, headerBytes - 4);
+        return v1;
+    }
+}
@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+class FrameSnapshotTest {
+
+    private static final int CIRCLES = 200000;
+    private static final int THRESHOLD = 100000;
+
+    private static FlockState bigFlock() {
+        FlockState state = new FlockState(CIRCLES, WorldConfig.DEFAULT);
+        state.setSeed(7);
+        state.setCount(CIRCLES);
+        return state;
+    }
+
+    @Test
+    void wholeViewOfBigFlockIsAggregated() {
+        FlockState state = bigFlock();
+        FrameSnapshot frame = new FrameSnapshot();
+        frame.copyFrom(state, 0, RenderView.whole(WorldConfig.DEFAULT.bounds()), THRESHOLD);
+        assertTrue(frame.aggregated);
+        assertEquals(0, frame.count);
+        assertEquals(CIRCLES, frame.density.getTotal());
+    }
+
+    @Test
+    void zoomedInOnBigFlockDrawsCircles() {
+        FlockState state = bigFlock();
+        int[] bounds = WorldConfig.DEFAULT.bounds();
+        RenderView zoomed = RenderView.whole(bounds).zoomedAt(bounds[2] / 2, bounds[3] / 2, RenderView.MAX_ZOOM, bounds);
+        FrameSnapshot frame = new FrameSnapshot();
+        frame.copyFrom(state, 0, zoomed, THRESHOLD);
+        assertFalse(frame.aggregated);
+        assertTrue(frame.count > 0 && frame.count < THRESHOLD);
+
+        // Only circles overlapping the view are copied
+        int w = zoomed.worldWidth(bounds[2]);
+        int h = zoomed.worldWidth(bounds[3]);
+        for (int i = 0; i < frame.count; i++) {
+            assertTrue(frame.x[i] + state.radius > zoomed.left && frame.x[i] < zoomed.left + w);
+            assertTrue(frame.y[i] + state.radius > zoomed.top && frame.y[i] < zoomed.top + h);
+        }
+
+        // And drawn as circles, clipped to the canvas
+        SnapshotExchange frames = new SnapshotExchange();
+        frames.publish(state, 0, zoomed, THRESHOLD);
+        FlockCanvas canvas = new FlockCanvas(frames, state.radius, bounds);
+        BufferedImage target = new BufferedImage(bounds[2], bounds[3], BufferedImage.TYPE_INT_ARGB);
+        Graphics g = target.getGraphics();
+        canvas.paintComponent(g);
+        g.dispose();
+        assertTrue(canvas.getDrawSummary().endsWith("circles x" + RenderView.MAX_ZOOM));
+    }
+}
@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class OffHeapFlockTest {
+
+    private static final int CIRCLES = 3000;
+
+    private static FlockState flock() {
+        FlockState state = new FlockState(CIRCLES, WorldConfig.DEFAULT);
+        state.setSeed(5);
+        state.setCount(CIRCLES);
+        return state;
+    }
+
+    /** Cap, sampling and far interval turned on, as the governor does */
+    private static void knobs(FlockKernel kernel) {
+        kernel.setNeighborCap(16);
+        kernel.setSampleStride(2);
+        kernel.setFocus(700, 400, 200, 2);
+    }
+
+    @Test
+    void ticksLikeDoubleBufferedEngineWithKnobs() throws IOException {
+        assumeTrue(OffHeapFlock.isAvailable());
+        FlockState heap = flock();
+        FlockEngine engine = new FlockEngine(heap);
+        engine.setDoubleBuffered(true);
+        knobs(engine.getKernel());
+        FlockKernel rules = new FlockKernel();
+        knobs(rules);
+        try (OffHeapFlock offHeap = OffHeapFlock.copyOf(flock(), null)) {
+            for (int t = 0; t < 30; t++) {
+                engine.tick();
+                offHeap.tick(rules);
+            }
+            FlockState copy = new FlockState(CIRCLES, WorldConfig.DEFAULT);
+            offHeap.copyTo(copy);
+            assertArrayEquals(Arrays.copyOf(heap.x, CIRCLES), Arrays.copyOf(copy.x, CIRCLES));
+            assertArrayEquals(Arrays.copyOf(heap.dy, CIRCLES), Arrays.copyOf(copy.dy, CIRCLES));
+            assertEquals(engine.getKernel().getNeighborVisits(), rules.getNeighborVisits());
+        }
+    }
+
+    @Test
+    void randomMatchesSetCount() throws IOException {
+        assumeTrue(OffHeapFlock.isAvailable());
+        FlockState expected = flock();
+        try (OffHeapFlock offHeap = OffHeapFlock.random(CIRCLES, WorldConfig.DEFAULT, 5, null)) {
+            FlockState copy = new FlockState(CIRCLES, WorldConfig.DEFAULT);
+            offHeap.copyTo(copy);
+            assertArrayEquals(Arrays.copyOf(expected.x, CIRCLES), Arrays.copyOf(copy.x, CIRCLES));
+            assertArrayEquals(Arrays.copyOf(expected.color, CIRCLES), Arrays.copyOf(copy.color, CIRCLES));
+            assertEquals(expected.getEpoch(), copy.getEpoch());
+            assertEquals(expected.getSeed(), copy.getSeed());
+        }
+    }
+}
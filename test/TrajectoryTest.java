@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TrajectoryTest {
+
+    @TempDir
+    Path dir;
+
+    /** One recorded tick, as the live flock had it */
+    private static final class Frame {
+        final long tick;
+        final int count;
+        final int[] x;
+        final int[] y;
+        final int[] dx;
+        final int[] dy;
+        final int[] color;
+        final boolean[] visible;
+
+        Frame(FlockState s, long tick) {
+            this.tick = tick;
+            count = s.count;
+            x = Arrays.copyOf(s.x, count);
+            y = Arrays.copyOf(s.y, count);
+            dx = Arrays.copyOf(s.dx, count);
+            dy = Arrays.copyOf(s.dy, count);
+            color = Arrays.copyOf(s.color, count);
+            visible = Arrays.copyOf(s.visible, count);
+        }
+
+        void assertSame(TrajectoryPlayer player) {
+            FlockState s = player.getState();
+            String at = "tick " + tick;
+            assertEquals(tick, player.getTick(), at);
+            assertEquals(count, s.count, at);
+            assertArrayEquals(x, Arrays.copyOf(s.x, count), at);
+            assertArrayEquals(y, Arrays.copyOf(s.y, count), at);
+            assertArrayEquals(dx, Arrays.copyOf(s.dx, count), at);
+            assertArrayEquals(dy, Arrays.copyOf(s.dy, count), at);
+            assertArrayEquals(color, Arrays.copyOf(s.color, count), at);
+            assertArrayEquals(visible, Arrays.copyOf(s.visible, count), at);
+        }
+    }
+
+    /**
+     * Records 600 ticks across two key frame intervals, with circles added,
+     * removed and reset along the way, and keeps a copy of every frame
+     */
+    private List<Frame> record(Path file) throws IOException {
+        FlockState state = new FlockState(1000, WorldConfig.DEFAULT);
+        state.setSeed(3);
+        state.setCount(1000);
+        FlockEngine engine = new FlockEngine(state, WorldConfig.DEFAULT);
+        List<Frame> frames = new ArrayList<>();
+        try (TrajectoryRecorder recorder = new TrajectoryRecorder(file, state)) {
+            for (int t = 0; t < 600; t++) {
+                if (t == 100) {
+                    state.spawn();
+                    state.spawn();
+                }
+                if (t == 200) {
+                    state.despawn(10);
+                }
+                if (t == 400) {
+                    // Same count, new circles: only the change counter says so
+                    state.setCount(state.count);
+                }
+                engine.tick();
+                recorder.record(state, engine.getTick());
+                frames.add(new Frame(state, engine.getTick()));
+            }
+            assertEquals(600, recorder.getFrames());
+            assertTrue(recorder.getBytes() < 600L * 1001 * 16, "deltas are smaller than raw ints");
+        }
+        return frames;
+    }
+
+    @Test
+    void replaysEveryFrame() throws IOException {
+        Path file = dir.resolve("flock.rec");
+        List<Frame> frames = record(file);
+        try (TrajectoryPlayer player = new TrajectoryPlayer(file)) {
+            for (Frame frame : frames) {
+                assertTrue(player.next());
+                frame.assertSame(player);
+            }
+            assertFalse(player.next());
+
+            // And again from the start
+            player.rewind();
+            assertTrue(player.next());
+            frames.get(0).assertSame(player);
+        }
+    }
+}
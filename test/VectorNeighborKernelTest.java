@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class VectorNeighborKernelTest {
+
+    private static final int CIRCLES = 3000;
+
+    /** The SIMD kernel, when this JVM has it; the tests are skipped otherwise */
+    private static NeighborKernel vector() {
+        NeighborKernel kernel = NeighborKernel.select();
+        assumeFalse(kernel instanceof ScalarNeighborKernel);
+        return kernel;
+    }
+
+    private static FlockState flock() {
+        FlockState state = new FlockState(CIRCLES, WorldConfig.DEFAULT);
+        state.setSeed(5);
+        state.setCount(CIRCLES);
+        return state;
+    }
+
+    @Test
+    void sumsMatchScalarForEveryRunLength() {
+        NeighborKernel vector = vector();
+        NeighborKernel scalar = new ScalarNeighborKernel();
+        SplittableRandom random = new SplittableRandom(11);
+        int size = 80;
+        int[] x = new int[size];
+        int[] y = new int[size];
+        int[] dx = new int[size];
+        int[] dy = new int[size];
+        for (int k = 0; k < size; k++) {
+            x[k] = random.nextInt(200);
+            y[k] = random.nextInt(200);
+            dx[k] = random.nextInt(11) - 5;
+            dy[k] = random.nextInt(11) - 5;
+        }
+        // Runs of every length up to a few loads (so every partial tail),
+        // with the circle itself before, inside and after the run
+        for (int from = 0; from < 3; from++) {
+            for (int to = from; to <= size - 3; to++) {
+                for (int self : new int[] {-1, from, (from + to) / 2, to - 1, to}) {
+                    int xi = self >= 0 ? x[self] : 100;
+                    int yi = self >= 0 ? y[self] : 100;
+                    long[] expected = sums();
+                    long[] actual = sums();
+                    scalar.accumulate(x, y, dx, dy, from, to, self, xi, yi, 60 * 60, 30 * 30, expected);
+                    vector.accumulate(x, y, dx, dy, from, to, self, xi, yi, 60 * 60, 30 * 30, actual);
+                    assertArrayEquals(expected, actual, "run " + from + ".." + to + ", self " + self);
+                }
+            }
+        }
+    }
+
+    @Test
+    void ticksLikeScalarKernel() {
+        NeighborKernel vector = vector();
+        FlockState a = flock();
+        FlockState b = flock();
+        FlockEngine simd = new FlockEngine(a);
+        FlockEngine plain = new FlockEngine(b);
+        simd.setDoubleBuffered(true);
+        plain.setDoubleBuffered(true);
+        simd.getKernel().setNeighborKernel(vector);
+        plain.getKernel().setNeighborKernel(new ScalarNeighborKernel());
+        for (int t = 0; t < 30; t++) {
+            simd.tick();
+            plain.tick();
+        }
+        assertArrayEquals(Arrays.copyOf(b.x, CIRCLES), Arrays.copyOf(a.x, CIRCLES));
+        assertArrayEquals(Arrays.copyOf(b.y, CIRCLES), Arrays.copyOf(a.y, CIRCLES));
+        assertArrayEquals(Arrays.copyOf(b.dx, CIRCLES), Arrays.copyOf(a.dx, CIRCLES));
+        assertArrayEquals(Arrays.copyOf(b.dy, CIRCLES), Arrays.copyOf(a.dy, CIRCLES));
+        assertEquals(plain.getKernel().getNeighborVisits(), simd.getKernel().getNeighborVisits());
+    }
+
+    private static long[] sums() {
+        long[] sums = new long[NeighborKernel.SUMS];
+        sums[NeighborKernel.NEAREST_SQ] = Long.MAX_VALUE;
+        return sums;
+    }
+}